@@ -0,0 +1,88 @@
+package edu.umn.cs.recsys.bench;
+
+import edu.umn.cs.recsys.dao.CSVItemTagDAO;
+import edu.umn.cs.recsys.dao.MOOCItemDAO;
+import edu.umn.cs.recsys.dao.MOOCRatingDAO;
+import edu.umn.cs.recsys.dao.MOOCUserDAO;
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.data.event.Event;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for loading the CSV data files through the MOOC DAOs and the tag DAO.  Each
+ * invocation uses fresh DAOs, so it measures a cold parse of the synthetic files.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DAOLoadBenchmark {
+    @Param({"10000"})
+    public int users;
+    @Param({"1000"})
+    public int items;
+    @Param({"0.02"})
+    public double density;
+
+    private File dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = File.createTempFile("ii-bench", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("cannot create " + dir);
+        }
+        new SyntheticRatings(users, items, density, 42).writeTo(dir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f: files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public int loadRatings() {
+        MOOCRatingDAO dao = new MOOCRatingDAO(new File(dir, "ratings.csv"));
+        Cursor<Event> events = dao.streamEvents();
+        int n = 0;
+        try {
+            for (Event e: events) {
+                n++;
+            }
+        } finally {
+            events.close();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int loadTitles() {
+        return new MOOCItemDAO(new File(dir, "movie-titles.csv")).getItemIds().size();
+    }
+
+    @Benchmark
+    public int loadTags() {
+        CSVItemTagDAO dao = new CSVItemTagDAO(new File(dir, "movie-titles.csv"),
+                                              new File(dir, "movie-tags.csv"));
+        return dao.getTagVocabulary().size();
+    }
+
+    @Benchmark
+    public int loadUsers() {
+        return new MOOCUserDAO(new File(dir, "users.csv")).getUserIds().size();
+    }
+}
@@ -0,0 +1,59 @@
+package edu.umn.cs.recsys.bench;
+
+import edu.umn.cs.recsys.ii.SimpleItemItemModel;
+import edu.umn.cs.recsys.ii.SimpleItemItemModelBuilder;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.PrefetchingUserEventDAO;
+import org.grouplens.lenskit.vectors.ImmutableSparseVector;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for building the item-item model from a synthetic rating matrix.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModelBuildBenchmark {
+    @Param({"1000", "5000"})
+    public int users;
+    @Param({"200", "1000"})
+    public int items;
+    @Param({"0.05"})
+    public double density;
+    @Param({"64"})
+    public int precision;
+    @Param({"0", "100"})
+    public int denseItems;
+
+    private SimpleItemItemModelBuilder builder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticRatings data = new SyntheticRatings(users, items, density, 42);
+        EventDAO events = data.makeEventDAO();
+        ItemDAO itemDao = data.makeItemDAO();
+        builder = new SimpleItemItemModelBuilder(itemDao, new PrefetchingUserEventDAO(events),
+                                                 precision, denseItems, 0, 0, "sample", 0,
+                                                 "cosine", 100, false);
+    }
+
+    @Benchmark
+    public SimpleItemItemModel buildModel() {
+        // bypass the model cache, which would make every invocation after the first free
+        return builder.buildModel(builder.getItemVectors());
+    }
+
+    @Benchmark
+    public Map<Long, ImmutableSparseVector> buildItemVectors() {
+        return builder.getItemVectors();
+    }
+}
@@ -0,0 +1,89 @@
+package edu.umn.cs.recsys.bench;
+
+import edu.umn.cs.recsys.ii.SimpleGlobalItemScorer;
+import edu.umn.cs.recsys.ii.SimpleItemItemModel;
+import edu.umn.cs.recsys.ii.SimpleItemItemModelBuilder;
+import edu.umn.cs.recsys.ii.SimpleItemItemScorer;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.data.dao.PrefetchingUserEventDAO;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the item-item scorers against a pre-built model.
+ *
+ * <p>Each invocation scores every item in the catalog for one user (or against one basket),
+ * into a score vector allocated once per trial.  Run with {@code -prof gc}: dividing
+ * {@code gc.alloc.rate.norm} by {@code items} gives the bytes allocated per scored item, which
+ * should be zero apart from the per-call cost of fetching the user's history.  To check it,
+ * build with {@code mvn -Pbench package} and run
+ * {@code java -jar target/benchmarks.jar ScoringBenchmark -prof gc -p items=500,5000}: the
+ * per-item figure is the slope of {@code gc.alloc.rate.norm} between the two catalog sizes,
+ * which cancels the fixed per-call cost.</p>
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScoringBenchmark {
+    @Param({"2000"})
+    public int users;
+    @Param({"500"})
+    public int items;
+    @Param({"0.05"})
+    public double density;
+    @Param({"64", "16", "8"})
+    public int precision;
+    @Param({"20"})
+    public int neighborhoodSize;
+    @Param({"5"})
+    public int basketSize;
+
+    private SimpleItemItemScorer scorer;
+    private SimpleGlobalItemScorer globalScorer;
+    private MutableSparseVector scores;
+    private LongList basket;
+    private long nextUser;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticRatings data = new SyntheticRatings(users, items, density, 42);
+        EventDAO events = data.makeEventDAO();
+        UserEventDAO userEvents = new PrefetchingUserEventDAO(events);
+        SimpleItemItemModel model =
+                new SimpleItemItemModelBuilder(data.makeItemDAO(), userEvents, precision,
+                                               0, 0, 0, "sample", 0, "cosine", 100,
+                                               false).get();
+        scorer = new SimpleItemItemScorer(model, userEvents, neighborhoodSize);
+        globalScorer = new SimpleGlobalItemScorer(model);
+        scores = MutableSparseVector.create(data.makeItemDAO().getItemIds());
+        basket = new LongArrayList();
+        for (long item = 1; item <= basketSize; item++) {
+            basket.add(item);
+        }
+        nextUser = 1;
+    }
+
+    @Benchmark
+    public MutableSparseVector scoreUser() {
+        long user = nextUser;
+        nextUser = nextUser % users + 1;
+        scorer.score(user, scores);
+        return scores;
+    }
+
+    @Benchmark
+    public MutableSparseVector scoreBasket() {
+        globalScorer.globalScore(basket, scores);
+        return scores;
+    }
+}
@@ -0,0 +1,84 @@
+package edu.umn.cs.recsys.bench;
+
+import edu.umn.cs.recsys.tools.GenerateData;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.data.dao.EventCollectionDAO;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.event.Rating;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic rating matrices for the benchmarks, made by {@link GenerateData}.  Users are
+ * numbered from 1 and items from 1; every user rates {@code density * items} distinct items (at
+ * least one), chosen uniformly, so the amount of work depends only on the parameters.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public final class SyntheticRatings {
+    private final int itemCount;
+    private final GenerateData generator;
+
+    public SyntheticRatings(int users, int items, double density, long seed) {
+        itemCount = items;
+        int perUser = Math.max(1, (int) Math.round(density * items));
+        // equal minimum and maximum fix the activity; exponent 0 makes popularity uniform
+        generator = new GenerateData(users, items, perUser, perUser, 0, 2, seed);
+    }
+
+    /**
+     * Generate the ratings.  The same parameters always produce the same ratings.
+     * @return The rating list, grouped by user.
+     */
+    public List<Rating> generate() {
+        List<Rating> ratings = new ArrayList<Rating>();
+        Cursor<Rating> cursor = generator.ratings();
+        try {
+            for (Rating r: cursor) {
+                ratings.add(r);
+            }
+        } finally {
+            cursor.close();
+        }
+        return ratings;
+    }
+
+    /**
+     * Generate the ratings into an in-memory event DAO.
+     */
+    public EventDAO makeEventDAO() {
+        return new EventCollectionDAO(generate());
+    }
+
+    /**
+     * Make an item DAO listing every item in the synthetic catalog.
+     */
+    public ItemDAO makeItemDAO() {
+        final LongSet items = new LongOpenHashSet(itemCount);
+        for (long item = 1; item <= itemCount; item++) {
+            items.add(item);
+        }
+        return new ItemDAO() {
+            @Override
+            public LongSet getItemIds() {
+                return items;
+            }
+        };
+    }
+
+    /**
+     * Write the data set to a directory as {@code ratings.csv}, {@code movie-titles.csv},
+     * {@code movie-tags.csv} and {@code users.csv}, in the same formats as the files in
+     * {@code data/}.
+     * @param dir The output directory.
+     */
+    public void writeTo(File dir) throws IOException {
+        generator.run(dir);
+    }
+}
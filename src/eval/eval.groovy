@@ -2,17 +2,25 @@ import edu.umn.cs.recsys.QueryDAOProvider
 import edu.umn.cs.recsys.dao.CSVItemTagDAO
 import edu.umn.cs.recsys.dao.TagFile
 import edu.umn.cs.recsys.dao.TitleFile
+import edu.umn.cs.recsys.eval.PackedDataSource
+import edu.umn.cs.recsys.eval.SplitCache
+import edu.umn.cs.recsys.ii.HeavyRaterCap
+import edu.umn.cs.recsys.ii.HeavyRaterPolicy
+import edu.umn.cs.recsys.ii.ShareSimilarityStatistics
+import edu.umn.cs.recsys.ii.SimilarityFunction
+import edu.umn.cs.recsys.ii.SimilarityPrecision
+import edu.umn.cs.recsys.ii.SimpleItemItemRecommender
 import edu.umn.cs.recsys.ii.SimpleItemItemScorer
+import org.grouplens.lenskit.ItemRecommender
 import org.grouplens.lenskit.ItemScorer
 import org.grouplens.lenskit.baseline.ItemMeanRatingItemScorer
 import org.grouplens.lenskit.baseline.UserMeanBaseline
 import org.grouplens.lenskit.baseline.UserMeanItemScorer
 import org.grouplens.lenskit.data.dao.ItemDAO
 import org.grouplens.lenskit.data.dao.UserEventDAO
-import org.grouplens.lenskit.eval.data.CSVDataSource
-import org.grouplens.lenskit.eval.data.crossfold.RandomOrder
-import org.grouplens.lenskit.eval.data.subsample.SubsampleMode
+import org.grouplens.lenskit.data.pref.PreferenceDomain
 import org.grouplens.lenskit.eval.data.traintest.GenericTTDataSet
+import org.grouplens.lenskit.eval.data.traintest.GenericTTDataSetBuilder
 import org.grouplens.lenskit.eval.metrics.predict.CoveragePredictMetric
 import org.grouplens.lenskit.eval.metrics.predict.NDCGPredictMetric
 import org.grouplens.lenskit.eval.metrics.predict.RMSEPredictMetric
@@ -24,6 +32,10 @@ import org.grouplens.lenskit.transform.normalize.VectorNormalizer
 import org.grouplens.lenskit.vectors.similarity.CosineVectorSimilarity
 import org.grouplens.lenskit.vectors.similarity.VectorSimilarity
 
+// Keep built item-item models across algorithm configurations, so the CustomItemItem runs
+// that differ only in scoring parameters share one model per training partition.
+System.setProperty("ii.modelCache.size", "16")
+
 // common configuration to make tags available
 // needed for both some algorithms and for metrics
 // this defines a variable containing a Groovy closure, if you care about that kind of thing
@@ -33,39 +45,33 @@ tagConfig = {
     set TitleFile to new File("${project.config.dataDir}/movie-titles.csv")
 }
 
-fullData = crossfold("FullData") {
-    source csvfile("MOOCRatings") {
-        file "${project.config.dataDir}/ratings.csv"
-        delimiter ","
-        domain {
-            minimum 0.5
-            maximum 5.0
-            precision 0.5
-        }
-    }
-    test "target/crossfold-5/test.%d.csv"
-    train "target/crossfold-5/train.%d.csv"
+// Split the ratings into 5 partitions, holding out 5 random ratings from each test user,
+// plus a version of each training set with 1/2 of the ratings.  The splits are cached in
+// binary form under a hash of ratings.csv and these parameters, so later runs reuse them.
+splits = new SplitCache(new File("${project.config.dataDir}/ratings.csv"),
+                        new File("target/split-cache"),
+                        5, 5, 0.5, 42L).prepare()
+domain = new PreferenceDomain(0.5, 5.0, 0.5)
 
-    // hold out 5 random items from each user
-    order RandomOrder
-    holdout 5
+def packed = { name, File file ->
+    new PackedDataSource(name as String, file, domain)
+}
 
-    // split users into 5 sets
-    partitions 5
+fullData = (0..(splits.partitionCount - 1)).collect { int i ->
+    new GenericTTDataSetBuilder()
+            .setName("FullData.${i}")
+            .setTrain(packed("FullData.${i}.train", splits.getTrainFile(i)))
+            .setTest(packed("FullData.${i}.test", splits.getTestFile(i)))
+            .setAttribute("DataSet", "FullData")
+            .setAttribute("Partition", i)
+            .build()
 }
 
 // create a version of each data partition with 1/2 the training ratings
-partialData = fullData.collect { GenericTTDataSet ds ->
-    def training = ds.trainingData as CSVDataSource
-    def trainingFile = training.file
-    def sampled = subsample {
-        source training
-        mode SubsampleMode.RATING
-        fraction 0.5
-        output new File(trainingFile.parentFile, "sampled-" + trainingFile.name)
-    }
+partialData = (0..(fullData.size() - 1)).collect { int i ->
+    def ds = fullData[i] as GenericTTDataSet
     ds.copyBuilder()
-      .setTrain(sampled)
+      .setTrain(packed("PartialData.${i}.train", splits.getSampledTrainFile(i)))
       .setName("PartialData")
       .setAttribute("DataSet", "PartialData")
       .build()
@@ -130,21 +136,95 @@ trainTest {
              }
         }
 
+        // NNbrs only affects scoring; the model builder reuses one model per training set
+        // across all of these, so only the first CustomItemItem run on a partition builds it.
+        // Sweep the similarity precision too, to see what quantizing the model costs.
+        for (bits in [64, 16, 8]) {
+            algorithm("CustomItemItem") {
+                include tagConfig
+
+                // Attributes let you specify additional properties of the algorithm.
+                // They go in the output file, so you can do things like plot accuracy by neighborhood size
+                attributes["NNbrs"] = nnbrs
+                attributes["SimPrecision"] = bits
+                attributes["Similarity"] = "cosine"
+                attributes["RaterPolicy"] = "none"
+                attributes["RaterCap"] = 0
+
+                // use the item-item rating predictor
+                bind ItemScorer to SimpleItemItemScorer
+                bind ItemRecommender to SimpleItemItemRecommender
+
+                set NeighborhoodSize to nnbrs
+                set SimilarityPrecision to bits
+
+                at(ItemScorer) {
+                    bind UserEventDAO toProvider QueryDAOProvider
+                }
+                at(ItemRecommender) {
+                    bind UserEventDAO toProvider QueryDAOProvider
+                }
+            }
+        }
+    }
+
+    // Rein in heavy raters while building the item vectors, to compare the accuracy cost of
+    // each policy against the untrimmed CustomItemItem runs above at the same neighborhood size.
+    // ratings.csv has no timestamps, so the "cap" policy would only fall back to sampling;
+    // sweep it on a timestamped data set instead.
+    for (policy in ["sample", "weight"]) {
+        for (cap in [50, 100, 200, 500]) {
+            algorithm("CustomItemItem") {
+                include tagConfig
+
+                attributes["NNbrs"] = 20
+                attributes["SimPrecision"] = 64
+                attributes["Similarity"] = "cosine"
+                attributes["RaterPolicy"] = policy
+                attributes["RaterCap"] = cap
+
+                bind ItemScorer to SimpleItemItemScorer
+                bind ItemRecommender to SimpleItemItemRecommender
+
+                set NeighborhoodSize to 20
+                set HeavyRaterCap to cap
+                set HeavyRaterPolicy to policy
+
+                at(ItemScorer) {
+                    bind UserEventDAO toProvider QueryDAOProvider
+                }
+                at(ItemRecommender) {
+                    bind UserEventDAO toProvider QueryDAOProvider
+                }
+            }
+        }
+    }
+
+    // Sweep the similarity function.  The first of these on a partition computes the pair
+    // statistics once and builds every function's model from them; the rest reuse those models.
+    for (similarity in ["cosine", "raw-cosine", "shrunk-cosine", "pearson"]) {
         algorithm("CustomItemItem") {
             include tagConfig
 
-            // Attributes let you specify additional properties of the algorithm.
-            // They go in the output file, so you can do things like plot accuracy by neighborhood size
-            attributes["NNbrs"] = nnbrs
+            attributes["NNbrs"] = 20
+            attributes["SimPrecision"] = 64
+            attributes["Similarity"] = similarity
+            attributes["RaterPolicy"] = "none"
+            attributes["RaterCap"] = 0
 
-            // use the item-item rating predictor
             bind ItemScorer to SimpleItemItemScorer
+            bind ItemRecommender to SimpleItemItemRecommender
 
-            set NeighborhoodSize to nnbrs
+            set NeighborhoodSize to 20
+            set SimilarityFunction to similarity
+            set ShareSimilarityStatistics to true
 
             at(ItemScorer) {
                 bind UserEventDAO toProvider QueryDAOProvider
             }
+            at(ItemRecommender) {
+                bind UserEventDAO toProvider QueryDAOProvider
+            }
         }
     }
 }
@@ -1,6 +1,7 @@
 package edu.umn.cs.recsys.dao;
 
 import com.google.common.collect.ImmutableSet;
+import edu.umn.cs.recsys.metrics.IIMetrics;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import org.grouplens.lenskit.cursors.Cursor;
@@ -33,6 +34,7 @@ public class CSVItemTagDAO extends MOOCItemDAO implements ItemTagDAO {
         if (tagCache == null) {
             synchronized (this) {
                 if (tagCache == null) {
+                    long start = IIMetrics.ENABLED ? System.nanoTime() : 0;
                     tagCache = new Long2ObjectOpenHashMap<List<String>>();
                     ImmutableSet.Builder<String> vocabBuilder = ImmutableSet.builder();
                     Cursor<String[]> lines = null;
@@ -56,6 +58,9 @@ public class CSVItemTagDAO extends MOOCItemDAO implements ItemTagDAO {
                         lines.close();
                     }
                     vocabCache = vocabBuilder.build();
+                    if (IIMetrics.ENABLED) {
+                        IIMetrics.get().addLoadTime(IIMetrics.Source.TAGS, System.nanoTime() - start);
+                    }
                 }
             }
         }
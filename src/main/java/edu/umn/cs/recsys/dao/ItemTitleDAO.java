@@ -3,6 +3,8 @@ package edu.umn.cs.recsys.dao;
 import org.grouplens.lenskit.data.dao.ItemDAO;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Extended item DAO that loads item titles.
@@ -17,4 +19,13 @@ public interface ItemTitleDAO extends ItemDAO {
      */
     @Nullable
     public String getItemTitle(long item);
+
+    /**
+     * Write a movie's title, encoded as UTF-8, to a channel without decoding it to a string.
+     * @param item The movie ID.
+     * @param out The channel to write to.
+     * @return {@code false} (and nothing is written) if no such movie exists.
+     * @throws IOException if there is an error writing the title.
+     */
+    boolean writeItemTitle(long item, WritableByteChannel out) throws IOException;
 }
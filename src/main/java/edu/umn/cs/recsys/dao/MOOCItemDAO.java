@@ -1,9 +1,8 @@
 package edu.umn.cs.recsys.dao;
 
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import edu.umn.cs.recsys.metrics.IIMetrics;
 import it.unimi.dsi.fastutil.longs.LongSet;
-import it.unimi.dsi.fastutil.longs.LongSets;
+import org.grouplens.lenskit.collections.LongUtils;
 import org.grouplens.lenskit.cursors.Cursor;
 import org.grouplens.lenskit.data.dao.DataAccessException;
 import org.grouplens.lenskit.util.DelimitedTextCursor;
@@ -11,13 +10,19 @@ import org.grouplens.lenskit.util.DelimitedTextCursor;
 import javax.inject.Inject;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 
 /**
+ * Item DAO backed by the title file.  Titles are kept as UTF-8 in an off-heap
+ * {@link PackedStringTable} rather than as {@link String} objects.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class MOOCItemDAO implements ItemTitleDAO {
     private final File titleFile;
-    private transient volatile Long2ObjectMap<String> titleCache;
+    private transient volatile PackedStringTable titleCache;
+    private transient volatile LongSet itemIds;
 
     @Inject
     public MOOCItemDAO(@TitleFile File file) {
@@ -28,14 +33,22 @@ public class MOOCItemDAO implements ItemTitleDAO {
         if (titleCache == null) {
             synchronized (this) {
                 if (titleCache == null) {
-                    titleCache = loadTitleCache();
+                    long start = IIMetrics.ENABLED ? System.nanoTime() : 0;
+                    PackedStringTable titles = loadTitleCache();
+                    // publish the ID set before the table, which is what readers check
+                    itemIds = LongUtils.packedSet(titles.keys());
+                    titleCache = titles;
+                    if (IIMetrics.ENABLED) {
+                        IIMetrics.get().addLoadTime(IIMetrics.Source.TITLES, System.nanoTime() - start);
+                    }
                 }
             }
         }
     }
 
-    private Long2ObjectMap<String> loadTitleCache() {
-        Long2ObjectMap<String> cache = new Long2ObjectOpenHashMap<String>();
+    private PackedStringTable loadTitleCache() {
+        // the file is a bit larger than its titles, so the builder never has to grow
+        PackedStringTable.Builder cache = new PackedStringTable.Builder(titleFile.length());
         Cursor<String[]> lines = null;
         try {
             lines = new DelimitedTextCursor(titleFile, ",");
@@ -45,23 +58,29 @@ public class MOOCItemDAO implements ItemTitleDAO {
         try {
             for (String[] line: lines) {
                 long mid = Long.parseLong(line[0]);
-                cache.put(mid, line[1]);
+                cache.add(mid, line[1]);
             }
         } finally {
             lines.close();
         }
-        return cache;
+        return cache.build(false);
     }
 
     @Override
     public LongSet getItemIds() {
         ensureTitleCache();
-        return LongSets.unmodifiable(titleCache.keySet());
+        return itemIds;
     }
 
     @Override
     public String getItemTitle(long item) {
         ensureTitleCache();
-        return titleCache.get(item);
+        return titleCache.valueOf(item);
+    }
+
+    @Override
+    public boolean writeItemTitle(long item, WritableByteChannel out) throws IOException {
+        ensureTitleCache();
+        return titleCache.writeValue(item, out);
     }
 }
@@ -1,5 +1,6 @@
 package edu.umn.cs.recsys.dao;
 
+import edu.umn.cs.recsys.metrics.IIMetrics;
 import org.grouplens.lenskit.cursors.Cursor;
 import org.grouplens.lenskit.cursors.Cursors;
 import org.grouplens.lenskit.data.dao.EventCollectionDAO;
@@ -35,7 +36,11 @@ public class MOOCRatingDAO implements EventDAO {
         if (cache == null) {
             synchronized (this) {
                 if (cache == null) {
+                    long start = IIMetrics.ENABLED ? System.nanoTime() : 0;
                     cache = new EventCollectionDAO(Cursors.makeList(csvDao.streamEvents()));
+                    if (IIMetrics.ENABLED) {
+                        IIMetrics.get().addLoadTime(IIMetrics.Source.RATINGS, System.nanoTime() - start);
+                    }
                 }
             }
         }
@@ -1,8 +1,7 @@
 package edu.umn.cs.recsys.dao;
 
+import edu.umn.cs.recsys.metrics.IIMetrics;
 import it.unimi.dsi.fastutil.longs.LongSet;
-import it.unimi.dsi.fastutil.objects.Object2LongMap;
-import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
 import org.grouplens.lenskit.collections.LongUtils;
 import org.grouplens.lenskit.cursors.Cursor;
 import org.grouplens.lenskit.data.dao.DataAccessException;
@@ -13,11 +12,14 @@ import java.io.File;
 import java.io.FileNotFoundException;
 
 /**
+ * User DAO backed by the user file.  User names are kept as UTF-8 in an off-heap
+ * {@link PackedStringTable} rather than as {@link String} objects.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class MOOCUserDAO implements UserNameDAO {
     private final File userFile;
-    private transient volatile Object2LongMap<String> nameCache;
+    private transient volatile PackedStringTable nameCache;
     private transient volatile LongSet userIds;
 
     @Inject
@@ -29,17 +31,21 @@ public class MOOCUserDAO implements UserNameDAO {
         if (nameCache == null) {
             synchronized (this) {
                 if (nameCache == null) {
-                    nameCache = loadNameCache();
-                    userIds = LongUtils.packedSet(nameCache.values());
+                    long start = IIMetrics.ENABLED ? System.nanoTime() : 0;
+                    PackedStringTable names = loadNameCache();
+                    // publish the ID set before the table, which is what readers check
+                    userIds = LongUtils.packedSet(names.keys());
+                    nameCache = names;
+                    if (IIMetrics.ENABLED) {
+                        IIMetrics.get().addLoadTime(IIMetrics.Source.USERS, System.nanoTime() - start);
+                    }
                 }
             }
         }
     }
 
-    private Object2LongMap<String> loadNameCache() {
-        Object2LongMap<String> cache = new Object2LongOpenHashMap<String>();
-        // make the cache return -1 for missing users
-        cache.defaultReturnValue(-1);
+    private PackedStringTable loadNameCache() {
+        PackedStringTable.Builder cache = new PackedStringTable.Builder(userFile.length());
         Cursor<String[]> lines = null;
         try {
             lines = new DelimitedTextCursor(userFile, ",");
@@ -49,12 +55,12 @@ public class MOOCUserDAO implements UserNameDAO {
         try {
             for (String[] line: lines) {
                 long uid = Long.parseLong(line[0]);
-                cache.put(line[1], uid);
+                cache.add(uid, line[1]);
             }
         } finally {
             lines.close();
         }
-        return cache;
+        return cache.build(true);
     }
 
     @Override
@@ -66,6 +72,6 @@ public class MOOCUserDAO implements UserNameDAO {
     @Override
     public long getUserByName(String name) {
         ensureNameCache();
-        return nameCache.get(name);
+        return nameCache.keyOf(name);
     }
 }
@@ -0,0 +1,240 @@
+package edu.umn.cs.recsys.dao;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Compact table of (long, string) entries.  The strings are stored as UTF-8 in one off-heap
+ * byte arena rather than as {@link String} objects, and an open-addressing hash table of ints
+ * indexes the entries either by key or by string, so the table costs a few bytes per entry
+ * beyond the string data itself.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+class PackedStringTable {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer arena;
+    private final int[] offsets;
+    private final long[] keys;
+    private final int[] slots;
+    private final int mask;
+    private final boolean byValue;
+
+    private PackedStringTable(ByteBuffer data, int[] offs, long[] ks, int n, boolean indexValues) {
+        arena = data;
+        offsets = offs;
+        keys = ks;
+        byValue = indexValues;
+        int cap = Integer.highestOneBit(Math.max(4, n * 2 - 1)) << 1;
+        slots = new int[cap];
+        mask = cap - 1;
+        for (int i = 0; i < n; i++) {
+            int h = byValue ? hashBytes(offsets[i], offsets[i + 1]) : hashKey(keys[i]);
+            int slot = h & mask;
+            while (slots[slot] != 0) {
+                int other = slots[slot] - 1;
+                if (byValue ? sameBytes(other, i) : keys[other] == keys[i]) {
+                    break;  // later entries replace earlier ones
+                }
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Get the number of entries.
+     */
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Get all keys, in insertion order.
+     */
+    LongList keys() {
+        return LongArrayList.wrap(keys);
+    }
+
+    /**
+     * Look up the key of a string.  Only valid for tables indexed by value.
+     * @return The key, or -1 if the string is not in the table.
+     */
+    long keyOf(String value) {
+        assert byValue;
+        byte[] bytes = value.getBytes(UTF8);
+        int h = hashBytes(bytes);
+        for (int slot = h & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int i = slots[slot] - 1;
+            if (matches(i, bytes)) {
+                return keys[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Look up the string for a key.  Only valid for tables indexed by key.
+     * @return The string, or {@code null} if the key is not in the table.
+     */
+    String valueOf(long key) {
+        int i = indexOfKey(key);
+        if (i < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[offsets[i + 1] - offsets[i]];
+        ByteBuffer buf = arena.duplicate();
+        buf.position(offsets[i]);
+        buf.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Write the UTF-8 bytes of a key's string straight from the arena to a channel.
+     * @return {@code false} if the key is not in the table.
+     */
+    boolean writeValue(long key, WritableByteChannel out) throws IOException {
+        int i = indexOfKey(key);
+        if (i < 0) {
+            return false;
+        }
+        ByteBuffer buf = arena.duplicate();
+        buf.limit(offsets[i + 1]);
+        buf.position(offsets[i]);
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        return true;
+    }
+
+    private int indexOfKey(long key) {
+        assert !byValue;
+        for (int slot = hashKey(key) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int i = slots[slot] - 1;
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int i, byte[] bytes) {
+        int start = offsets[i];
+        if (offsets[i + 1] - start != bytes.length) {
+            return false;
+        }
+        for (int k = 0; k < bytes.length; k++) {
+            if (arena.get(start + k) != bytes[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameBytes(int i, int j) {
+        int len = offsets[i + 1] - offsets[i];
+        if (offsets[j + 1] - offsets[j] != len) {
+            return false;
+        }
+        for (int k = 0; k < len; k++) {
+            if (arena.get(offsets[i] + k) != arena.get(offsets[j] + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int hashBytes(int start, int end) {
+        int h = 0x811C9DC5;
+        for (int k = start; k < end; k++) {
+            h = (h ^ arena.get(k)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hashBytes(byte[] bytes) {
+        int h = 0x811C9DC5;
+        for (byte b: bytes) {
+            h = (h ^ b) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hashKey(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Builder accumulating entries in a heap staging buffer.  Growing the staging buffer only
+     * makes garbage the collector reclaims as usual; the off-heap arena is allocated once, at
+     * its exact size, when the table is built.
+     */
+    static class Builder {
+        private byte[] staging;
+        private int length;
+        private int[] offsets = new int[1024];
+        private final LongArrayList keys = new LongArrayList();
+
+        Builder() {
+            this(64 * 1024);
+        }
+
+        /**
+         * Create a builder.
+         * @param expectedBytes The expected total size of the strings in UTF-8, such as the
+         *                      length of the file they come from.  With a good estimate the
+         *                      staging buffer never has to grow.
+         */
+        Builder(long expectedBytes) {
+            long size = Math.min(expectedBytes, Integer.MAX_VALUE - 8);
+            staging = new byte[(int) Math.max(1024, size)];
+        }
+
+        Builder add(long key, String value) {
+            byte[] bytes = value.getBytes(UTF8);
+            if (staging.length - length < bytes.length) {
+                long cap = staging.length;
+                while (cap - length < bytes.length) {
+                    cap *= 2;
+                }
+                staging = Arrays.copyOf(staging, (int) Math.min(cap, Integer.MAX_VALUE - 8));
+            }
+            System.arraycopy(bytes, 0, staging, length, bytes.length);
+            length += bytes.length;
+            int n = keys.size();
+            if (n + 2 > offsets.length) {
+                int[] bigger = new int[offsets.length * 2];
+                System.arraycopy(offsets, 0, bigger, 0, offsets.length);
+                offsets = bigger;
+            }
+            keys.add(key);
+            offsets[n + 1] = length;
+            return this;
+        }
+
+        /**
+         * Build the table.
+         * @param indexValues {@code true} to index the table by string, {@code false} to index
+         *                    it by key.
+         */
+        PackedStringTable build(boolean indexValues) {
+            int n = keys.size();
+            // the only off-heap allocation, at exactly the size of the strings
+            ByteBuffer data = ByteBuffer.allocateDirect(Math.max(1, length));
+            data.put(staging, 0, length);
+            data.clear();
+            staging = null;
+            int[] offs = new int[n + 1];
+            System.arraycopy(offsets, 0, offs, 0, n + 1);
+            return new PackedStringTable(data, offs, keys.toLongArray(), n, indexValues);
+        }
+    }
+}
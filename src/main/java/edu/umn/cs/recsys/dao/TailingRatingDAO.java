@@ -0,0 +1,331 @@
+package edu.umn.cs.recsys.dao;
+
+import com.google.common.collect.Iterators;
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.cursors.Cursors;
+import org.grouplens.lenskit.data.dao.DataAccessException;
+import org.grouplens.lenskit.data.dao.EventCollectionDAO;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.data.dao.SortOrder;
+import org.grouplens.lenskit.data.event.Event;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.event.Ratings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rating DAO that follows appends to the rating file.
+ *
+ * <p>Like {@link MOOCRatingDAO}, this keeps the ratings in memory, but it also remembers how far
+ * into the file it has read.  {@link #refresh()} reads only the complete lines appended since
+ * the last read and appends them to the in-memory ratings; a trailing partial line is left for
+ * the next refresh, and malformed lines are logged and skipped.  The ratings live in an
+ * append-only array, and each refresh publishes a snapshot that is just the array and a count,
+ * so picking up new ratings does not copy the old ones.  If the file shrinks, it is assumed to
+ * have been replaced and is reloaded from the start.
+ * {@link #startPolling(long, TimeUnit)} refreshes in the background.</p>
+ *
+ * <p>The DAO's version is the number of ratings it has read, and
+ * {@link #streamEventsSince(long)} returns the ratings added after a given version, so consumers
+ * can pick up new ratings without reloading everything.  Versions keep increasing across
+ * reloads; a consumer whose version is older than {@link #getReloadVersion()} has seen ratings
+ * from a replaced file and must start over from {@link #streamEvents()}.</p>
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class TailingRatingDAO implements EventDAO {
+    private static final Logger logger = LoggerFactory.getLogger(TailingRatingDAO.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Rating[] NO_RATINGS = new Rating[0];
+
+    private final File ratingFile;
+    // append-only; published snapshots share this array, so entries below count never change
+    private Rating[] ratings = NO_RATINGS;
+    private int count;
+    private long baseVersion;
+    private long offset;
+    private long skippedLines;
+    private transient volatile Snapshot snapshot;
+    private transient ScheduledExecutorService poller;
+
+    /**
+     * The ratings as of one refresh: a prefix of the rating array, plus the sorted copies that
+     * have been asked for, so each order is sorted at most once per snapshot.
+     */
+    private static final class Snapshot {
+        final List<Rating> ratings;
+        final long baseVersion;
+        private final Map<SortOrder,List<Rating>> sorted =
+                new EnumMap<SortOrder, List<Rating>>(SortOrder.class);
+
+        Snapshot(Rating[] array, int count, long base) {
+            ratings = Collections.unmodifiableList(Arrays.asList(array).subList(0, count));
+            baseVersion = base;
+        }
+
+        synchronized List<Rating> sortedBy(SortOrder order) {
+            List<Rating> list = sorted.get(order);
+            if (list == null) {
+                // let the collection DAO do the sorting
+                Cursor<Rating> cursor =
+                        new EventCollectionDAO(ratings).streamEvents(Rating.class, order);
+                try {
+                    list = new ArrayList<Rating>(ratings.size());
+                    for (Rating r: cursor) {
+                        list.add(r);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                list = Collections.unmodifiableList(list);
+                sorted.put(order, list);
+            }
+            return list;
+        }
+    }
+
+    @Inject
+    public TailingRatingDAO(@RatingFile File file) {
+        ratingFile = file;
+    }
+
+    /**
+     * Read any ratings appended to the file since the last refresh.
+     * @return The number of new ratings.
+     */
+    public synchronized int refresh() {
+        int before = count;
+        try {
+            RandomAccessFile in = new RandomAccessFile(ratingFile, "r");
+            try {
+                long length = in.length();
+                if (length < offset) {
+                    logger.info("{} shrank, reloading", ratingFile);
+                    // versions carry on from where the old file left off
+                    baseVersion += count;
+                    ratings = NO_RATINGS;
+                    count = 0;
+                    offset = 0;
+                    before = 0;
+                }
+                if (length > offset) {
+                    in.seek(offset);
+                    readLines(in, length);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new DataAccessException("cannot read " + ratingFile, e);
+        } finally {
+            // publish whatever was read, even if reading stopped partway, so the snapshot and
+            // the versions always agree
+            if (count > before || snapshot == null || snapshot.baseVersion != baseVersion) {
+                snapshot = new Snapshot(ratings, count, baseVersion);
+            }
+        }
+        int added = count - before;
+        if (added > 0) {
+            logger.debug("read {} new ratings from {}", added, ratingFile);
+        }
+        return added;
+    }
+
+    /**
+     * Parse the complete lines between the current offset and {@code end}, advancing the offset
+     * past each one.
+     */
+    private void readLines(RandomAccessFile in, long end) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        long pos = offset;
+        while (pos < end) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, end - pos));
+            if (n < 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                byte b = buffer[i];
+                if (b == '\n') {
+                    parseLine(line.toString("UTF-8"));
+                    line.reset();
+                    offset = pos + i + 1;
+                } else {
+                    line.write(b);
+                }
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Parse a line and append its rating.  A malformed line is skipped, since the offset has to
+     * move past it or every later refresh would fail on it again.
+     */
+    private void parseLine(String line) {
+        line = line.trim();
+        if (line.isEmpty()) {
+            return;
+        }
+        String[] fields = line.split(",");
+        Rating rating;
+        try {
+            if (fields.length < 3) {
+                throw new NumberFormatException("too few fields");
+            }
+            long user = Long.parseLong(fields[0].trim());
+            long item = Long.parseLong(fields[1].trim());
+            double value = Double.parseDouble(fields[2].trim());
+            if (fields.length >= 4) {
+                rating = Ratings.make(user, item, value, Long.parseLong(fields[3].trim()));
+            } else {
+                rating = Ratings.make(user, item, value);
+            }
+        } catch (NumberFormatException e) {
+            skippedLines++;
+            logger.warn("skipping invalid rating line in {}: {}", ratingFile, line);
+            return;
+        }
+        if (count == ratings.length) {
+            // old snapshots keep the old array, which is still valid for their prefix
+            ratings = Arrays.copyOf(ratings, Math.max(1024, count * 2));
+        }
+        ratings[count++] = rating;
+    }
+
+    /**
+     * Get the current version, the total number of ratings read so far, including those from
+     * before any reload.
+     */
+    public synchronized long getVersion() {
+        ensureLoaded();
+        return baseVersion + count;
+    }
+
+    /**
+     * Get the version at which the ratings were last reloaded because the file was replaced.
+     * Ratings from before this version are gone; a consumer holding an older version must
+     * start over.
+     */
+    public synchronized long getReloadVersion() {
+        ensureLoaded();
+        return baseVersion;
+    }
+
+    /**
+     * Get the number of malformed lines skipped so far.
+     */
+    public synchronized long getSkippedLineCount() {
+        return skippedLines;
+    }
+
+    /**
+     * Stream the ratings added after a version, in the order they were read.
+     * @param version A version previously returned by {@link #getVersion()}, or
+     *                {@link #getReloadVersion()} for all current ratings.
+     * @return A cursor over the ratings added since that version.  It is not affected by later
+     *         refreshes.
+     * @throws IllegalStateException if the ratings have been reloaded since {@code version}.
+     */
+    public Cursor<Rating> streamEventsSince(long version) {
+        ensureLoaded();
+        Snapshot snap = snapshot;
+        long current = snap.baseVersion + snap.ratings.size();
+        if (version < snap.baseVersion) {
+            throw new IllegalStateException("ratings were reloaded at version " + snap.baseVersion
+                                            + ", after version " + version);
+        }
+        if (version > current) {
+            throw new IllegalArgumentException("invalid version " + version);
+        }
+        int from = (int) (version - snap.baseVersion);
+        return Cursors.wrap(snap.ratings.subList(from, snap.ratings.size()));
+    }
+
+    /**
+     * Refresh periodically on a background thread.  Does nothing if already polling.
+     * @param interval The time between refreshes.
+     * @param unit The unit of {@code interval}.
+     */
+    public synchronized void startPolling(long interval, TimeUnit unit) {
+        if (poller != null) {
+            return;
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "rating-tail-" + ratingFile.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (DataAccessException e) {
+                    logger.warn("error refreshing ratings", e);
+                }
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Stop background refreshing.
+     */
+    public synchronized void stopPolling() {
+        if (poller != null) {
+            poller.shutdown();
+            poller = null;
+        }
+    }
+
+    private void ensureLoaded() {
+        if (snapshot == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    refresh();
+                }
+            }
+        }
+    }
+
+    @Override
+    public Cursor<Event> streamEvents() {
+        ensureLoaded();
+        return Cursors.<Event>wrap(snapshot.ratings.iterator());
+    }
+
+    @Override
+    public <E extends Event> Cursor<E> streamEvents(Class<E> type) {
+        ensureLoaded();
+        return Cursors.wrap(Iterators.filter(snapshot.ratings.iterator(), type));
+    }
+
+    @Override
+    public <E extends Event> Cursor<E> streamEvents(Class<E> type, SortOrder order) {
+        ensureLoaded();
+        if (order == SortOrder.ANY) {
+            return streamEvents(type);
+        }
+        return Cursors.wrap(Iterators.filter(snapshot.sortedBy(order).iterator(), type));
+    }
+}
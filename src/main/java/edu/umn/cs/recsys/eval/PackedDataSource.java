@@ -0,0 +1,65 @@
+package edu.umn.cs.recsys.eval;
+
+import org.grouplens.lenskit.data.dao.DataAccessException;
+import org.grouplens.lenskit.data.dao.EventCollectionDAO;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.data.pref.PreferenceDomain;
+import org.grouplens.lenskit.eval.data.AbstractDataSource;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Evaluation data source reading a {@link PackedRatingFile}.  The ratings are loaded the first
+ * time they are needed and then shared by every algorithm evaluated on this source.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class PackedDataSource extends AbstractDataSource {
+    private final String name;
+    private final File file;
+    private final PreferenceDomain domain;
+    private transient volatile EventCollectionDAO cache;
+
+    public PackedDataSource(String name, File file, PreferenceDomain domain) {
+        this.name = name;
+        this.file = file;
+        this.domain = domain;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public PreferenceDomain getPreferenceDomain() {
+        return domain;
+    }
+
+    @Override
+    public long lastModified() {
+        return file.lastModified();
+    }
+
+    @Override
+    public EventDAO getEventDAO() {
+        if (cache == null) {
+            synchronized (this) {
+                if (cache == null) {
+                    try {
+                        cache = new EventCollectionDAO(PackedRatingFile.read(file));
+                    } catch (IOException e) {
+                        throw new DataAccessException("cannot read " + file, e);
+                    }
+                }
+            }
+        }
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PackedDataSource(%s)", file);
+    }
+}
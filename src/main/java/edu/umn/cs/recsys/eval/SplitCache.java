@@ -0,0 +1,183 @@
+package edu.umn.cs.recsys.eval;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.data.dao.SimpleFileRatingDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Content-addressed cache of crossfold splits for the evaluation.
+ *
+ * <p>The splits are stored as {@link PackedRatingFile}s in a directory named by a SHA-1 hash
+ * of the source file's contents and the split parameters.  If that directory is already
+ * complete, {@link #prepare()} just checks the hash; otherwise it splits the ratings and writes
+ * the files.  Splitting holds out {@code holdout} random ratings from each user in a test
+ * partition, like LensKit's crossfold with {@code RandomOrder}, and also writes a sample of
+ * each training set keeping {@code sampleFraction} of its ratings, like {@code subsample} in
+ * rating mode.  Splits are drawn from a generator seeded with {@code seed}, so the same inputs
+ * always produce the same splits.</p>
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class SplitCache {
+    private static final Logger logger = LoggerFactory.getLogger(SplitCache.class);
+    private static final String COMPLETE = "complete";
+
+    private final File source;
+    private final File cacheRoot;
+    private final int partitions;
+    private final int holdout;
+    private final double sampleFraction;
+    private final long seed;
+    private File dir;
+
+    public SplitCache(File source, File cacheRoot, int partitions, int holdout,
+                      double sampleFraction, long seed) {
+        this.source = source;
+        this.cacheRoot = cacheRoot;
+        this.partitions = partitions;
+        this.holdout = holdout;
+        this.sampleFraction = sampleFraction;
+        this.seed = seed;
+    }
+
+    /**
+     * Make sure the splits exist, creating them if necessary.
+     * @return This cache, for chaining.
+     */
+    public synchronized SplitCache prepare() throws IOException {
+        if (dir != null) {
+            return this;
+        }
+        File d = new File(cacheRoot, key());
+        if (new File(d, COMPLETE).exists()) {
+            logger.info("using cached splits in {}", d);
+        } else {
+            logger.info("splitting {} into {}", source, d);
+            if (!d.isDirectory() && !d.mkdirs()) {
+                throw new IOException("cannot create " + d);
+            }
+            split(d);
+            if (!new File(d, COMPLETE).createNewFile()) {
+                throw new IOException("cannot mark " + d + " complete");
+            }
+        }
+        dir = d;
+        return this;
+    }
+
+    public int getPartitionCount() {
+        return partitions;
+    }
+
+    public File getTrainFile(int part) {
+        return file("train", part);
+    }
+
+    public File getTestFile(int part) {
+        return file("test", part);
+    }
+
+    public File getSampledTrainFile(int part) {
+        return file("sampled-train", part);
+    }
+
+    private File file(String kind, int part) {
+        if (dir == null) {
+            throw new IllegalStateException("splits not prepared");
+        }
+        return new File(dir, String.format("%s.%d.bin", kind, part));
+    }
+
+    /**
+     * Compute the cache key from the source contents and the split parameters.
+     */
+    private String key() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 not available", e);
+        }
+        InputStream in = new FileInputStream(source);
+        try {
+            byte[] buf = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                digest.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        String params = String.format(Locale.ROOT, "|partitions=%d|holdout=%d|sample=%s|seed=%d",
+                                      partitions, holdout, sampleFraction, seed);
+        digest.update(params.getBytes("UTF-8"));
+        StringBuilder hex = new StringBuilder();
+        for (byte b: digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private void split(File d) throws IOException {
+        Random rng = new Random(seed);
+
+        // group the ratings by user, keeping users in a stable order
+        Long2ObjectMap<List<Rating>> byUser = new Long2ObjectOpenHashMap<List<Rating>>();
+        List<Long> users = new ArrayList<Long>();
+        Cursor<Rating> ratings = new SimpleFileRatingDAO(source, ",").streamEvents(Rating.class);
+        try {
+            for (Rating r: ratings) {
+                if (r.getPreference() == null) {
+                    continue;
+                }
+                List<Rating> list = byUser.get(r.getUserId());
+                if (list == null) {
+                    list = new ArrayList<Rating>();
+                    byUser.put(r.getUserId(), list);
+                    users.add(r.getUserId());
+                }
+                list.add(r);
+            }
+        } finally {
+            ratings.close();
+        }
+
+        // assign users to partitions at random
+        Collections.shuffle(users, rng);
+        List<List<Rating>> train = new ArrayList<List<Rating>>(partitions);
+        List<List<Rating>> test = new ArrayList<List<Rating>>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            train.add(new ArrayList<Rating>());
+            test.add(new ArrayList<Rating>());
+        }
+        for (int u = 0; u < users.size(); u++) {
+            int part = u % partitions;
+            List<Rating> userRatings = new ArrayList<Rating>(byUser.get(users.get(u)));
+            Collections.shuffle(userRatings, rng);
+            int nTest = Math.min(holdout, userRatings.size());
+            test.get(part).addAll(userRatings.subList(0, nTest));
+            for (int p = 0; p < partitions; p++) {
+                train.get(p).addAll(p == part ? userRatings.subList(nTest, userRatings.size())
+                                              : userRatings);
+            }
+        }
+
+        for (int p = 0; p < partitions; p++) {
+            List<Rating> sampled = new ArrayList<Rating>(train.get(p));
+            Collections.shuffle(sampled, rng);
+            sampled = sampled.subList(0, (int) Math.round(sampled.size() * sampleFraction));
+            PackedRatingFile.write(new File(d, String.format("train.%d.bin", p)), train.get(p));
+            PackedRatingFile.write(new File(d, String.format("test.%d.bin", p)), test.get(p));
+            PackedRatingFile.write(new File(d, String.format("sampled-train.%d.bin", p)), sampled);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package edu.umn.cs.recsys.ii;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Asynchronous front end to an item scorer that batches concurrent requests.
+ *
+ * <p>Requests are queued and flushed as a batch when {@code maxBatch} requests are waiting or
+ * {@code maxDelayMicros} after the first one arrived, whichever comes first.  Within a batch,
+ * all requests for the same user are coalesced: the user's items are merged and scored in one
+ * call to the underlying scorer, so the user's history is fetched once, and each request's
+ * future receives the scores for its own items.  Each user's requests are scored as a separate
+ * task on a pool of worker threads, so one batch spreads over all the workers.</p>
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class BatchingItemScorer {
+    private static final Logger logger = LoggerFactory.getLogger(BatchingItemScorer.class);
+
+    private final ItemScorer scorer;
+    private final int maxBatch;
+    private final long maxDelayMicros;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService workers;
+
+    private final Object lock = new Object();
+    private Map<Long,UserRequests> pending = new LinkedHashMap<Long, UserRequests>();
+    private int pendingCount;
+    private ScheduledFuture<?> deadline;
+    private boolean shutDown;
+
+    /**
+     * Create a batching scorer.
+     * @param scorer The underlying item scorer.  It must be safe to call from several threads.
+     * @param maxBatch The number of requests that triggers an immediate flush.
+     * @param maxDelayMicros The longest a request waits for its batch to fill.
+     * @param threads The number of worker threads scoring batches.
+     */
+    public BatchingItemScorer(ItemScorer scorer, int maxBatch, long maxDelayMicros, int threads) {
+        this.scorer = scorer;
+        this.maxBatch = maxBatch;
+        this.maxDelayMicros = maxDelayMicros;
+        ThreadFactory factory = new ThreadFactory() {
+            private int n = 0;
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "batch-scorer-" + n++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        timer = Executors.newSingleThreadScheduledExecutor(factory);
+        workers = Executors.newFixedThreadPool(threads, factory);
+    }
+
+    /**
+     * Score items for a user.
+     * @param user The user ID.
+     * @param items The items to score.
+     * @return A future for the score vector, whose key domain is {@code items}.  After
+     *         {@link #shutdown()}, the future fails with a {@link RejectedExecutionException}.
+     */
+    public ListenableFuture<SparseVector> score(long user, Collection<Long> items) {
+        SettableFuture<SparseVector> result = SettableFuture.create();
+        Map<Long,UserRequests> batch = null;
+        synchronized (lock) {
+            if (shutDown) {
+                result.setException(new RejectedExecutionException("batching scorer is shut down"));
+                return result;
+            }
+            UserRequests reqs = pending.get(user);
+            if (reqs == null) {
+                reqs = new UserRequests(user);
+                pending.put(user, reqs);
+            }
+            reqs.add(items, result);
+            pendingCount++;
+            if (pendingCount >= maxBatch) {
+                batch = takeBatch();
+            } else if (deadline == null) {
+                deadline = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, maxDelayMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+        if (batch != null) {
+            submit(batch);
+        }
+        return result;
+    }
+
+    /**
+     * Flush the requests waiting now, without waiting for the batch to fill.
+     */
+    public void flush() {
+        Map<Long,UserRequests> batch;
+        synchronized (lock) {
+            batch = takeBatch();
+        }
+        if (batch != null) {
+            submit(batch);
+        }
+    }
+
+    /**
+     * Flush waiting requests and stop the worker threads once they have been scored.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutDown = true;
+        }
+        flush();
+        timer.shutdown();
+        workers.shutdown();
+    }
+
+    /**
+     * Take the pending requests.  Must be called with the lock held.
+     * @return The pending requests, or {@code null} if there are none.
+     */
+    private Map<Long,UserRequests> takeBatch() {
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+        if (pendingCount == 0) {
+            return null;
+        }
+        Map<Long,UserRequests> batch = pending;
+        pending = new LinkedHashMap<Long, UserRequests>();
+        pendingCount = 0;
+        return batch;
+    }
+
+    private void submit(Map<Long,UserRequests> batch) {
+        Iterator<UserRequests> iter = batch.values().iterator();
+        while (iter.hasNext()) {
+            UserRequests reqs = iter.next();
+            try {
+                workers.execute(reqs);
+            } catch (RejectedExecutionException e) {
+                reqs.fail(e);
+                while (iter.hasNext()) {
+                    iter.next().fail(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The requests in a batch for a single user.
+     */
+    private class UserRequests implements Runnable {
+        private final long user;
+        private final LongSet items = new LongOpenHashSet();
+        private final List<Collection<Long>> requests = new ArrayList<Collection<Long>>(2);
+        private final List<SettableFuture<SparseVector>> results =
+                new ArrayList<SettableFuture<SparseVector>>(2);
+
+        UserRequests(long user) {
+            this.user = user;
+        }
+
+        void add(Collection<Long> req, SettableFuture<SparseVector> result) {
+            items.addAll(req);
+            requests.add(req);
+            results.add(result);
+        }
+
+        @Override
+        public void run() {
+            try {
+                SparseVector scores = scorer.score(user, items);
+                if (requests.size() == 1) {
+                    results.get(0).set(scores);
+                    return;
+                }
+                for (int r = 0; r < requests.size(); r++) {
+                    MutableSparseVector v = MutableSparseVector.create(requests.get(r));
+                    for (long item: requests.get(r)) {
+                        if (scores.containsKey(item)) {
+                            v.set(item, scores.get(item));
+                        }
+                    }
+                    results.get(r).set(v.immutable());
+                }
+            } catch (Throwable t) {
+                // fail the futures even on an Error, or their callers would wait forever
+                logger.error("error scoring for user " + user, t);
+                fail(t);
+                if (t instanceof Error) {
+                    throw (Error) t;
+                }
+            }
+        }
+
+        void fail(Throwable t) {
+            for (SettableFuture<SparseVector> result: results) {
+                result.setException(t);
+            }
+        }
+    }
+}
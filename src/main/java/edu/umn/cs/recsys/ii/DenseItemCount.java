@@ -0,0 +1,24 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter annotation for the number of most-rated items whose pairwise similarities the
+ * model builder computes with the dense kernel.  0 disables the dense kernel.  The block takes
+ * about {@code 8 * n * n} bytes; if a {@link ModelBuildMemory} budget is set, a block that does
+ * not fit in it is an error.
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ * @see DenseSimilarityBlock
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(0)
+public @interface DenseItemCount {
+}
@@ -0,0 +1,175 @@
+package edu.umn.cs.recsys.ii;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongAVLTreeSet;
+import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import org.grouplens.lenskit.vectors.ImmutableSparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+
+import java.util.*;
+
+/**
+ * Cosine similarities between the most-rated ("head") items, computed with a dense kernel.
+ *
+ * <p>Popular items have dense rating vectors, where a sparse merge-join spends most of its time
+ * on branches.  This class computes all pairwise dot products one tile of users at a time: it
+ * packs the head items' ratings from that tile into a dense float matrix, then walks it block
+ * by block, a block of rows {@code i} crossed with a block of rows {@code j}, so both blocks
+ * stay in cache while every pair between them is multiplied.  Only one tile is ever dense, so
+ * the packed tile takes {@code count * 4KB} however many users there are, next to a float copy
+ * of the head items' sparse ratings; the similarities take {@code count * count * 8} bytes.
+ * The inner loop is a plain multiply-add over contiguous arrays with four independent
+ * accumulators; it does not depend on the JIT vectorizing it.  Similarities use the full vector norms, so they match
+ * {@link org.grouplens.lenskit.vectors.similarity.CosineVectorSimilarity} up to float
+ * rounding.</p>
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+class DenseSimilarityBlock {
+    /**
+     * Users per tile; 1024 floats is 4KB per row.
+     */
+    private static final int USER_TILE = 1024;
+    /**
+     * Rows per item block; two blocks of 32 row slices are 256KB, which fits in L2.
+     */
+    private static final int ITEM_TILE = 32;
+
+    private final Long2IntMap itemIndex;
+    private final int size;
+    private final double[] similarities;
+
+    /**
+     * Compute the head item similarities.
+     * @param itemVectors The item vectors.
+     * @param count The number of head items.
+     */
+    DenseSimilarityBlock(Map<Long,ImmutableSparseVector> itemVectors, int count) {
+        final Map<Long,ImmutableSparseVector> vectors = itemVectors;
+        List<Long> byPopularity = new ArrayList<Long>(itemVectors.keySet());
+        Collections.sort(byPopularity, new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                int sa = vectors.get(a).size();
+                int sb = vectors.get(b).size();
+                return sa != sb ? (sa > sb ? -1 : 1) : a.compareTo(b);
+            }
+        });
+        size = Math.min(count, byPopularity.size());
+
+        itemIndex = new Long2IntOpenHashMap(size);
+        itemIndex.defaultReturnValue(-1);
+        // number the users in ID order, so each item's entries come in increasing user index
+        LongSortedSet userIds = new LongAVLTreeSet();
+        double[] norms = new double[size];
+        for (int h = 0; h < size; h++) {
+            long item = byPopularity.get(h);
+            itemIndex.put(item, h);
+            ImmutableSparseVector v = itemVectors.get(item);
+            norms[h] = v.norm();
+            userIds.addAll(v.keySet());
+        }
+        long[] users = userIds.toLongArray();
+        int[][] itemUsers = new int[size][];
+        float[][] itemValues = new float[size][];
+        for (int h = 0; h < size; h++) {
+            ImmutableSparseVector v = itemVectors.get(byPopularity.get(h));
+            itemUsers[h] = new int[v.size()];
+            itemValues[h] = new float[v.size()];
+            int k = 0;
+            for (VectorEntry e: v.fast()) {
+                itemUsers[h][k] = Arrays.binarySearch(users, e.getKey());
+                itemValues[h][k] = (float) e.getValue();
+                k++;
+            }
+        }
+
+        // accumulate dot products in the upper triangle, one user tile at a time
+        similarities = new double[size * size];
+        float[] tile = new float[size * USER_TILE];
+        int[] next = new int[size];
+        for (int u0 = 0; u0 < users.length; u0 += USER_TILE) {
+            int u1 = Math.min(users.length, u0 + USER_TILE);
+            int width = u1 - u0;
+            Arrays.fill(tile, 0);
+            for (int h = 0; h < size; h++) {
+                int[] us = itemUsers[h];
+                int k = next[h];
+                while (k < us.length && us[k] < u1) {
+                    tile[h * USER_TILE + us[k] - u0] = itemValues[h][k];
+                    k++;
+                }
+                next[h] = k;
+            }
+            for (int i0 = 0; i0 < size; i0 += ITEM_TILE) {
+                int i1 = Math.min(size, i0 + ITEM_TILE);
+                for (int j0 = i0; j0 < size; j0 += ITEM_TILE) {
+                    int j1 = Math.min(size, j0 + ITEM_TILE);
+                    for (int i = i0; i < i1; i++) {
+                        int bi = i * USER_TILE;
+                        for (int j = Math.max(i + 1, j0); j < j1; j++) {
+                            similarities[i * size + j] += dot(tile, bi, j * USER_TILE, width);
+                        }
+                    }
+                }
+            }
+        }
+
+        // turn the dot products into similarities in place, mirroring them into the lower half
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                double denom = norms[i] * norms[j];
+                double sim = denom > 0 ? similarities[i * size + j] / denom : 0;
+                similarities[i * size + j] = sim;
+                similarities[j * size + i] = sim;
+            }
+        }
+    }
+
+    /**
+     * Get the memory a block over some number of head items needs while it is built: the
+     * similarity matrix and one packed user tile.
+     * @param count The number of head items.
+     * @return The size of the block's arrays, in bytes.
+     */
+    static long footprint(int count) {
+        return 8L * count * count + 4L * count * USER_TILE;
+    }
+
+    /**
+     * Dot product of the first {@code width} users of two rows of a tile.  Four independent
+     * accumulators break the dependency chain on the sum.
+     */
+    private static double dot(float[] m, int bi, int bj, int width) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int u = 0;
+        for (; u + 3 < width; u += 4) {
+            s0 += m[bi + u] * m[bj + u];
+            s1 += m[bi + u + 1] * m[bj + u + 1];
+            s2 += m[bi + u + 2] * m[bj + u + 2];
+            s3 += m[bi + u + 3] * m[bj + u + 3];
+        }
+        for (; u < width; u++) {
+            s0 += m[bi + u] * m[bj + u];
+        }
+        return (double) s0 + s1 + s2 + s3;
+    }
+
+    /**
+     * Get an item's position in the head block.
+     * @return The item's head index, or -1 if it is not a head item.
+     */
+    int indexOf(long item) {
+        return itemIndex.get(item);
+    }
+
+    /**
+     * Get the similarity between two head items.
+     * @param i The first item's head index.
+     * @param j The second item's head index.
+     */
+    double similarity(int i, int j) {
+        return similarities[i * size + j];
+    }
+}
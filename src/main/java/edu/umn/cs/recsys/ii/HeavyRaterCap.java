@@ -0,0 +1,23 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter annotation for the number of ratings above which a user counts as a heavy rater
+ * when building item vectors.  A user with {@code k} ratings contributes to {@code k²} item
+ * pairs, so a few very active users can dominate the build; {@link HeavyRaterPolicy} says what
+ * to do with them.  0 leaves every user's ratings alone.
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(0)
+public @interface HeavyRaterCap {
+}
@@ -0,0 +1,34 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.grapht.annotation.DefaultString;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter annotation for how the item vector builder treats users with more ratings than
+ * {@link HeavyRaterCap}:
+ * <dl>
+ *     <dt>{@code cap}</dt>
+ *     <dd>keep the user's most recent ratings, up to the cap.  Users whose ratings all have the
+ *     same timestamp, such as every user of a data set without timestamps, are sampled instead,
+ *     with a warning;</dd>
+ *     <dt>{@code sample}</dt>
+ *     <dd>keep a deterministic pseudo-random sample of the cap size, chosen by hashing user and
+ *     item IDs so the same ratings are kept on every run;</dd>
+ *     <dt>{@code weight}</dt>
+ *     <dd>keep all ratings, but scale the user's mean-centered ratings by
+ *     {@code sqrt(cap / k)}, so the user's weight in each similarity shrinks with activity.
+ *     This changes accuracy but not build cost.</dd>
+ * </dl>
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@Qualifier
+@Parameter(String.class)
+@DefaultString("sample")
+public @interface HeavyRaterPolicy {
+}
@@ -5,6 +5,7 @@ import com.google.common.collect.Sets;
 import edu.umn.cs.recsys.dao.*;
 import org.grouplens.lenskit.GlobalItemRecommender;
 import org.grouplens.lenskit.GlobalItemScorer;
+import org.grouplens.lenskit.ItemRecommender;
 import org.grouplens.lenskit.ItemScorer;
 import org.grouplens.lenskit.RecommenderBuildException;
 import org.grouplens.lenskit.core.LenskitConfiguration;
@@ -18,7 +19,13 @@ import org.grouplens.lenskit.vectors.SparseVector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,6 +35,8 @@ import java.util.regex.Pattern;
  */
 public class IIMain {
     private static final Logger logger = LoggerFactory.getLogger("ii-assignment");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] NULL_TITLE = "null".getBytes(UTF8);
 
     /**
      * Main entry point to the program.
@@ -89,6 +98,23 @@ public class IIMain {
         }
 
         logger.info("scoring for {} users", toScore.size());
+        // Whole lines are written as UTF-8 to one buffer, so titles can come straight from the
+        // DAO's UTF-8 storage without decoding them, and stdout sees a write per 64KB rather
+        // than a flush per line.
+        OutputStream buffered = new BufferedOutputStream(System.out, 1 << 16);
+        WritableByteChannel out = Channels.newChannel(buffered);
+        try {
+            writeScores(scorer, titleDAO, toScore, buffered, out);
+            buffered.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("error writing output", e);
+        }
+    }
+
+    private static void writeScores(ItemScorer scorer, ItemTitleDAO titleDAO,
+                                    Map<Long,Set<Long>> toScore,
+                                    OutputStream buffered, WritableByteChannel out)
+            throws IOException {
         for (Map.Entry<Long,Set<Long>> scoreRequest: toScore.entrySet()) {
             long user = scoreRequest.getKey();
             Set<Long> items = scoreRequest.getValue();
@@ -103,8 +129,12 @@ public class IIMain {
                 } else {
                     score = "NA";
                 }
-                String title = titleDAO.getItemTitle(item);
-                System.out.format("%d,%d,%s,%s\n", user, item, score, title);
+                String prefix = String.format(Locale.ROOT, "%d,%d,%s,", user, item, score);
+                buffered.write(prefix.getBytes(UTF8));
+                if (!titleDAO.writeItemTitle(item, out)) {
+                    buffered.write(NULL_TITLE);
+                }
+                buffered.write('\n');
             }
         }
     }
@@ -139,15 +169,24 @@ public class IIMain {
      * Create the LensKit recommender configuration.
      * @return The LensKit recommender configuration.
      */
+    private static LenskitConfiguration configureRecommender() {
+        return configureRecommender(new File("data"));
+    }
+
+    /**
+     * Create the LensKit recommender configuration for a data directory.
+     * @param dataDir The directory containing the ratings, titles and users files.
+     * @return The LensKit recommender configuration.
+     */
     // LensKit configuration API generates some unchecked warnings, turn them off
     @SuppressWarnings("unchecked")
-    private static LenskitConfiguration configureRecommender() {
+    public static LenskitConfiguration configureRecommender(File dataDir) {
         LenskitConfiguration config = new LenskitConfiguration();
         // configure the rating data source
         config.bind(EventDAO.class)
               .to(MOOCRatingDAO.class);
         config.set(RatingFile.class)
-              .to(new File("data/ratings.csv"));
+              .to(new File(dataDir, "ratings.csv"));
 
         // use custom item and user DAOs
         // our item DAO has title information
@@ -156,19 +195,22 @@ public class IIMain {
         config.addRoot(UserDAO.class);
         // and title file
         config.set(TitleFile.class)
-              .to(new File("data/movie-titles.csv"));
+              .to(new File(dataDir, "movie-titles.csv"));
 
         // our user DAO can look up by user name
         config.bind(UserDAO.class)
               .to(MOOCUserDAO.class);
         config.addRoot(UserDAO.class);
         config.set(UserFile.class)
-              .to(new File("data/users.csv"));
+              .to(new File(dataDir, "users.csv"));
 
         // use the item-item scorer you will implement to score items
         config.bind(ItemScorer.class)
               .to(SimpleItemItemScorer.class);
         config.bind(GlobalItemScorer.class).to(SimpleGlobalItemScorer.class);
+        // recommend for users from their rated items rather than by scoring every item
+        config.bind(ItemRecommender.class)
+              .to(SimpleItemItemRecommender.class);
         config.set(NeighborhoodSize.class)
               .to(20);
         return config;
@@ -0,0 +1,23 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter annotation for lazy neighborhood computation.  When positive, the model builder
+ * only prepares the item vectors, and each item's neighborhood is computed the first time it is
+ * used; at most this many neighborhoods are kept, evicting roughly the least recently used.  0 computes
+ * every neighborhood up front.
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(0)
+public @interface LazyNeighborhoodCache {
+}
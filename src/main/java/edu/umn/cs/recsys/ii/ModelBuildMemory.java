@@ -0,0 +1,22 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter annotation for the memory budget, in megabytes, for neighborhoods in flight while
+ * building the item-item model.  When positive, the builder computes neighborhoods in chunks
+ * that fit the budget and spills each chunk to disk; 0 builds everything in memory.
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(0)
+public @interface ModelBuildMemory {
+}
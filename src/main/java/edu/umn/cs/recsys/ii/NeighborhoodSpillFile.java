@@ -0,0 +1,99 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.lenskit.scored.ScoredId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Temporary file holding finished neighborhood rows, appended a chunk at a time and then read
+ * back in order.  Each row is the item ID, the neighbor count, and the (neighbor ID,
+ * similarity) pairs.  One file serves a whole build; callers must {@link #delete()} it when
+ * they are done, whether or not the build succeeded.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+class NeighborhoodSpillFile {
+    private static final Logger logger = LoggerFactory.getLogger(NeighborhoodSpillFile.class);
+
+    private final File file;
+    private DataOutputStream out;
+
+    NeighborhoodSpillFile() throws IOException {
+        file = File.createTempFile("ii-nbrs", ".bin");
+        try {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        } catch (IOException e) {
+            delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Append a chunk of rows to the file.
+     * @param items The items, parallel to {@code rows}.
+     * @param rows The neighborhoods, sorted by decreasing similarity.
+     */
+    void append(long[] items, List<List<ScoredId>> rows) throws IOException {
+        for (int r = 0; r < rows.size(); r++) {
+            List<ScoredId> row = rows.get(r);
+            out.writeLong(items[r]);
+            out.writeInt(row.size());
+            for (ScoredId nbr: row) {
+                out.writeLong(nbr.getId());
+                out.writeDouble(nbr.getScore());
+            }
+        }
+    }
+
+    /**
+     * Finish writing and read every row back into a model builder.
+     * @param builder The model builder to receive the rows.
+     */
+    void readInto(SimpleItemItemModel.Builder builder) throws IOException {
+        out.close();
+        out = null;
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            while (true) {
+                long item;
+                try {
+                    item = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                int n = in.readInt();
+                long[] ids = new long[n];
+                double[] scores = new double[n];
+                for (int k = 0; k < n; k++) {
+                    ids[k] = in.readLong();
+                    scores[k] = in.readDouble();
+                }
+                builder.setRow(item, ids, scores);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Close and delete the file.
+     */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.warn("error closing spill file {}: {}", file, e.getMessage());
+            }
+            out = null;
+        }
+        if (file.exists() && !file.delete()) {
+            logger.warn("could not delete spill file {}", file);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package edu.umn.cs.recsys.ii;
+
+import edu.umn.cs.recsys.metrics.IIMetrics;
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.scored.ScoredIdListBuilder;
+import org.grouplens.lenskit.scored.ScoredIds;
+import org.grouplens.lenskit.vectors.ImmutableSparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+
+import java.util.*;
+
+/**
+ * Builds item-item models for several similarity functions from one pass over the item pairs.
+ *
+ * <p>For each item, the pass walks the users who rated it and, through each user's ratings,
+ * every item co-rated with it, accumulating the statistics the supported similarity functions
+ * are made of: the dot products of the mean-centered and of the raw rating vectors, the number
+ * of co-raters, and the sums and sums of squares of both items' raw ratings over the co-raters.
+ * Together with the full vector norms, each function is then a few arithmetic operations per
+ * pair.  The functions are:</p>
+ * <dl>
+ *     <dt>{@code cosine}</dt>
+ *     <dd>cosine of the mean-centered vectors (adjusted cosine), as in the default build;</dd>
+ *     <dt>{@code raw-cosine}</dt>
+ *     <dd>cosine of the raw rating vectors;</dd>
+ *     <dt>{@code shrunk-cosine}</dt>
+ *     <dd>adjusted cosine multiplied by {@code n / (n + damping)} for {@code n} co-raters;</dd>
+ *     <dt>{@code pearson}</dt>
+ *     <dd>Pearson correlation of the raw ratings over the co-raters.</dd>
+ * </dl>
+ *
+ * <p>Users' ratings are summed in increasing order of user ID, the same order as a sparse dot
+ * product, so the {@code cosine} model matches the default build.</p>
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+class PairStatistics {
+    /**
+     * The supported similarity functions.
+     */
+    static final List<String> FUNCTIONS =
+            Collections.unmodifiableList(Arrays.asList("cosine", "raw-cosine", "shrunk-cosine",
+                                                       "pearson"));
+
+    private final long[] itemIds;
+    // item-major ratings: user indexes, raw and centered values
+    private final int[][] itemUsers;
+    private final double[][] itemRaw;
+    private final double[][] itemCentered;
+    // user-major ratings: item indexes, raw and centered values
+    private final int[][] userItems;
+    private final double[][] userRaw;
+    private final double[][] userCentered;
+    private final double[] rawNorms;
+    private final double[] centeredNorms;
+
+    /**
+     * Index the ratings.
+     * @param centered The mean-centered item vectors.
+     * @param raw The raw item vectors, with the same items and users.
+     */
+    PairStatistics(Map<Long, ImmutableSparseVector> centered,
+                   Map<Long, ImmutableSparseVector> raw) {
+        SortedSet<Long> items = new TreeSet<Long>(centered.keySet());
+        itemIds = new long[items.size()];
+        int n = 0;
+        for (Long item: items) {
+            itemIds[n++] = item;
+        }
+
+        SortedSet<Long> users = new TreeSet<Long>();
+        for (ImmutableSparseVector v: centered.values()) {
+            users.addAll(v.keySet());
+        }
+        long[] userIds = new long[users.size()];
+        int nusers = 0;
+        for (Long user: users) {
+            userIds[nusers++] = user;
+        }
+
+        itemUsers = new int[n][];
+        itemRaw = new double[n][];
+        itemCentered = new double[n][];
+        rawNorms = new double[n];
+        centeredNorms = new double[n];
+        int[] userCounts = new int[nusers];
+        for (int i = 0; i < n; i++) {
+            ImmutableSparseVector cv = centered.get(itemIds[i]);
+            ImmutableSparseVector rv = raw.get(itemIds[i]);
+            int size = cv.size();
+            itemUsers[i] = new int[size];
+            itemRaw[i] = new double[size];
+            itemCentered[i] = new double[size];
+            int k = 0;
+            for (VectorEntry e: cv.fast()) {
+                int u = Arrays.binarySearch(userIds, e.getKey());
+                itemUsers[i][k] = u;
+                itemCentered[i][k] = e.getValue();
+                itemRaw[i][k] = rv.get(e.getKey());
+                userCounts[u]++;
+                k++;
+            }
+            rawNorms[i] = rv.norm();
+            centeredNorms[i] = cv.norm();
+        }
+
+        // transpose; filling in item order leaves each user's items sorted
+        userItems = new int[nusers][];
+        userRaw = new double[nusers][];
+        userCentered = new double[nusers][];
+        for (int u = 0; u < nusers; u++) {
+            userItems[u] = new int[userCounts[u]];
+            userRaw[u] = new double[userCounts[u]];
+            userCentered[u] = new double[userCounts[u]];
+        }
+        int[] fill = new int[nusers];
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < itemUsers[i].length; k++) {
+                int u = itemUsers[i][k];
+                int pos = fill[u]++;
+                userItems[u][pos] = i;
+                userRaw[u][pos] = itemRaw[i][k];
+                userCentered[u][pos] = itemCentered[i][k];
+            }
+        }
+    }
+
+    /**
+     * Build a model for each of several similarity functions.
+     * @param functions The similarity functions, from {@link #FUNCTIONS}.
+     * @param bits The number of bits per similarity: 64, 16 or 8.
+     * @param damping The damping constant for {@code shrunk-cosine}.
+     * @return The models, by similarity function.
+     */
+    Map<String,SimpleItemItemModel> buildModels(List<String> functions, int bits, double damping) {
+        int n = itemIds.length;
+        int nfuncs = functions.size();
+        int[] codes = new int[nfuncs];
+        SimpleItemItemModel.Builder[] builders = new SimpleItemItemModel.Builder[nfuncs];
+        for (int f = 0; f < nfuncs; f++) {
+            codes[f] = FUNCTIONS.indexOf(functions.get(f));
+            if (codes[f] < 0) {
+                throw new IllegalArgumentException("unknown similarity function "
+                                                   + functions.get(f));
+            }
+            builders[f] = new SimpleItemItemModel.Builder(itemIds, bits);
+        }
+
+        // per-row accumulators, indexed by the other item
+        int[] counts = new int[n];
+        double[] centeredDots = new double[n];
+        double[] rawDots = new double[n];
+        double[] sumsI = new double[n];
+        double[] sumsJ = new double[n];
+        double[] squaresI = new double[n];
+        double[] squaresJ = new double[n];
+        int[] touched = new int[n];
+
+        long simNanos = 0;
+        long sortNanos = 0;
+        long pairs = 0;
+        long pruned = 0;
+        ScoredIdListBuilder[] rows = new ScoredIdListBuilder[nfuncs];
+        for (int i = 0; i < n; i++) {
+            long start = IIMetrics.ENABLED ? System.nanoTime() : 0;
+            int ntouched = 0;
+            for (int k = 0; k < itemUsers[i].length; k++) {
+                int u = itemUsers[i][k];
+                double rawI = itemRaw[i][k];
+                double centeredI = itemCentered[i][k];
+                int[] others = userItems[u];
+                double[] othersRaw = userRaw[u];
+                double[] othersCentered = userCentered[u];
+                for (int m = 0; m < others.length; m++) {
+                    int j = others[m];
+                    if (counts[j]++ == 0) {
+                        touched[ntouched++] = j;
+                    }
+                    double rawJ = othersRaw[m];
+                    centeredDots[j] += centeredI * othersCentered[m];
+                    rawDots[j] += rawI * rawJ;
+                    sumsI[j] += rawI;
+                    sumsJ[j] += rawJ;
+                    squaresI[j] += rawI * rawI;
+                    squaresJ[j] += rawJ * rawJ;
+                }
+            }
+
+            // visit neighbors in item order, as the default build does, so ties sort the same
+            Arrays.sort(touched, 0, ntouched);
+            for (int f = 0; f < nfuncs; f++) {
+                rows[f] = ScoredIds.newListBuilder();
+            }
+            for (int t = 0; t < ntouched; t++) {
+                int j = touched[t];
+                if (j != i) {
+                    // a pair counts once however many functions score it, and as pruned only
+                    // if no function keeps it
+                    pairs++;
+                    boolean kept = false;
+                    for (int f = 0; f < nfuncs; f++) {
+                        double sim = similarity(codes[f], i, j, counts[j], centeredDots[j],
+                                                rawDots[j], sumsI[j], sumsJ[j],
+                                                squaresI[j], squaresJ[j], damping);
+                        if (sim > 0.000001) {
+                            rows[f].add(itemIds[j], sim);
+                            kept = true;
+                        }
+                    }
+                    if (!kept) {
+                        pruned++;
+                    }
+                }
+                counts[j] = 0;
+                centeredDots[j] = 0;
+                rawDots[j] = 0;
+                sumsI[j] = 0;
+                sumsJ[j] = 0;
+                squaresI[j] = 0;
+                squaresJ[j] = 0;
+            }
+
+            long mid = IIMetrics.ENABLED ? System.nanoTime() : 0;
+            for (int f = 0; f < nfuncs; f++) {
+                rows[f].sort(SimpleItemItemModelBuilder.ScoreIdComparator);
+                List<ScoredId> nbrs = rows[f].build();
+                long[] ids = new long[nbrs.size()];
+                double[] scores = new double[nbrs.size()];
+                int k = 0;
+                for (ScoredId nbr: nbrs) {
+                    ids[k] = nbr.getId();
+                    scores[k] = nbr.getScore();
+                    k++;
+                }
+                builders[f].setRow(itemIds[i], ids, scores);
+            }
+            if (IIMetrics.ENABLED) {
+                simNanos += mid - start;
+                sortNanos += System.nanoTime() - mid;
+            }
+        }
+
+        Map<String,SimpleItemItemModel> models = new HashMap<String, SimpleItemItemModel>();
+        long bytes = 0;
+        for (int f = 0; f < nfuncs; f++) {
+            SimpleItemItemModel model = builders[f].build();
+            models.put(functions.get(f), model);
+            bytes += model.estimateSizeInBytes();
+        }
+        if (IIMetrics.ENABLED) {
+            IIMetrics metrics = IIMetrics.get();
+            metrics.addPhaseTime(IIMetrics.Phase.SIMILARITY, simNanos);
+            metrics.addPhaseTime(IIMetrics.Phase.SORT, sortNanos);
+            metrics.addPairs(pairs, pruned);
+            metrics.setModelSize(bytes);
+        }
+        return models;
+    }
+
+    private double similarity(int function, int i, int j, int count, double centeredDot,
+                              double rawDot, double sumI, double sumJ,
+                              double squaresI, double squaresJ, double damping) {
+        switch (function) {
+        case 0:
+            return cosine(centeredDot, centeredNorms[i], centeredNorms[j]);
+        case 1:
+            return cosine(rawDot, rawNorms[i], rawNorms[j]);
+        case 2:
+            double sim = cosine(centeredDot, centeredNorms[i], centeredNorms[j]);
+            return sim * count / (count + damping);
+        default:
+            double cov = rawDot - sumI * sumJ / count;
+            double varI = squaresI - sumI * sumI / count;
+            double varJ = squaresJ - sumJ * sumJ / count;
+            double denom = Math.sqrt(varI * varJ);
+            return denom > 0 ? cov / denom : 0;
+        }
+    }
+
+    private static double cosine(double dot, double normI, double normJ) {
+        double denom = normI * normJ;
+        return denom == 0 ? 0 : dot / denom;
+    }
+}
@@ -0,0 +1,25 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.grapht.annotation.DefaultBoolean;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter annotation to build the models for every {@link SimilarityFunction} in one pass
+ * and cache them together.  Configurations over the same data that differ only in similarity
+ * function then pay for enumerating the item pairs once; this is meant for evaluation sweeps,
+ * since a single configuration only needs one of the models.  Like the functions other than
+ * {@code cosine}, sharing cannot be combined with {@link DenseItemCount},
+ * {@link ModelBuildMemory} or {@link LazyNeighborhoodCache}.
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@Qualifier
+@Parameter(Boolean.class)
+@DefaultBoolean(false)
+public @interface ShareSimilarityStatistics {
+}
@@ -0,0 +1,21 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.grapht.annotation.DefaultDouble;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter annotation for the damping constant of the {@code shrunk-cosine} similarity
+ * function: a similarity over {@code n} co-raters is multiplied by {@code n / (n + damping)}.
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@Qualifier
+@Parameter(Double.class)
+@DefaultDouble(100)
+public @interface SimilarityDamping {
+}
@@ -0,0 +1,24 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.grapht.annotation.DefaultString;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter annotation for the item similarity function: {@code cosine} (adjusted cosine over
+ * mean-centered ratings), {@code raw-cosine}, {@code shrunk-cosine} or {@code pearson}; see
+ * {@link PairStatistics}.  Functions other than {@code cosine} are computed from the shared pair
+ * statistics, which do not support {@link DenseItemCount}, {@link ModelBuildMemory} or
+ * {@link LazyNeighborhoodCache}; setting any of them with such a function is an error.
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@Qualifier
+@Parameter(String.class)
+@DefaultString("cosine")
+public @interface SimilarityFunction {
+}
@@ -0,0 +1,21 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter annotation for the number of bits used to store each neighbor similarity in the
+ * item-item model: 64 (exact doubles), 16 or 8 (quantized with a per-item scale).
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(64)
+public @interface SimilarityPrecision {
+}
@@ -1,16 +1,13 @@
 package edu.umn.cs.recsys.ii;
 
 import org.grouplens.lenskit.basic.AbstractGlobalItemScorer;
-import org.grouplens.lenskit.scored.ScoredId;
 import org.grouplens.lenskit.vectors.MutableSparseVector;
 import org.grouplens.lenskit.vectors.VectorEntry;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.List;
 
 /**
  * Global item scorer to find similar items.
@@ -18,7 +15,6 @@ import java.util.List;
  */
 public class SimpleGlobalItemScorer extends AbstractGlobalItemScorer {
     private final SimpleItemItemModel model;
-    private static final Logger logger = LoggerFactory.getLogger(SimpleGlobalItemScorer.class);
     @Inject
     public SimpleGlobalItemScorer(SimpleItemItemModel mod) {
         model = mod;
@@ -33,35 +29,33 @@ public class SimpleGlobalItemScorer extends AbstractGlobalItemScorer {
     @Override
     public void globalScore(@Nonnull Collection<Long> items, @Nonnull MutableSparseVector scores) {
         scores.fill(0);
-        // TODO score items in the domain of scores
         // each item's score is the sum of its similarity to each item in items, if they are
         // neighbors in the model.
+        int[] basket = new int[items.size()];
+        int n = 0;
+        for (Long i: items) {
+            int idx = model.getItemIndex(i);
+            if (idx >= 0) {
+                basket[n++] = idx;
+            }
+        }
+        Arrays.sort(basket, 0, n);
+
         for (VectorEntry e: scores.fast(VectorEntry.State.EITHER)) {
             long item = e.getKey();
-            List<ScoredId> neighbors;
-            neighbors = model.getNeighbors(item);
-            logger.debug("GlobalItem: "+item );
+            int row = model.getItemIndex(item);
+            if (row < 0) {
+                continue;
+            }
+            SimpleItemItemModel.Row nbrRow = model.getRow(row);
+            int[] nbrs = nbrRow.getIndexes();
             double sum = 0;
-            int count = 0;
-
-            for(Long i: items) {
-
-                sum += getScored(neighbors, i);
+            for (int i = 0; i < nbrs.length; i++) {
+                if (Arrays.binarySearch(basket, 0, n, nbrs[i]) >= 0) {
+                    sum += nbrRow.getScore(i);
+                }
             }
-
             scores.set(item, sum);
         }
-
-    }
-
-    private double getScored(List<ScoredId> neighbors, Long i) {
-        double retVal = 0;
-        for(ScoredId scoredId : neighbors) {
-            if(scoredId.getId() == i) {
-                retVal = scoredId.getScore();
-                break;
-            }
-        }
-        return  retVal;
     }
 }
@@ -1,33 +1,451 @@
 package edu.umn.cs.recsys.ii;
 
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.grouplens.grapht.annotation.DefaultProvider;
+import org.grouplens.lenskit.collections.LongUtils;
 import org.grouplens.lenskit.core.Shareable;
 import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.scored.ScoredIdListBuilder;
+import org.grouplens.lenskit.scored.ScoredIds;
 
+import java.io.NotSerializableException;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
+ * Item-item model storing each item's neighborhood.
+ *
+ * <p>Items are numbered by a dictionary of their IDs in increasing order, and each item's row
+ * holds its neighbors as 32-bit indexes into that dictionary.  Similarities are stored either
+ * exactly, or quantized to 16 or 8 bits with a per-row scale (see {@link SimilarityPrecision});
+ * quantized scores are decoded on access.  Because the dictionary is sorted, a sorted list of
+ * item IDs maps to a sorted list of indexes.</p>
+ *
+ * <p>A lazy model (see {@link LazyNeighborhoodCache}) computes each row the first time it is
+ * asked for and keeps a bounded number of rows in a cache; concurrent requests for the same
+ * row wait for a single computation.  Lazy models hold on to the data they compute rows from,
+ * and cannot be serialized.</p>
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 @Shareable
 @DefaultProvider(SimpleItemItemModelBuilder.class)
 public class SimpleItemItemModel implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 4L;
+    private static final int[] NO_NEIGHBORS = new int[0];
 
-    private final Map<Long,List<ScoredId>> neighborhoods;
+    private final long[] itemIds;
+    private final int precision;
+    private final Row[] rows;
+    private final transient LazyRows lazyRows;
+    private transient volatile ReverseNeighbors reverseNeighbors;
 
     /**
-     * Create a new item-item model.
+     * Create a new item-item model storing exact similarities.
      * @param nbrhoods A mapping of items to neighborhoods.  The neighborhoods
      *                 must be sorted by similarity in non-increasing order (most
      *                 similar neighbors first).  They should not have any negative
      *                 scores.
      */
     public SimpleItemItemModel(Map<Long,List<ScoredId>> nbrhoods) {
-        neighborhoods = nbrhoods;
+        this(nbrhoods, 64);
+    }
+
+    /**
+     * Create a new item-item model.
+     * @param nbrhoods A mapping of items to neighborhoods, as for {@link #SimpleItemItemModel(Map)}.
+     * @param bits The number of bits per similarity: 64, 16 or 8.
+     */
+    public SimpleItemItemModel(Map<Long,List<ScoredId>> nbrhoods, int bits) {
+        this(fromMap(nbrhoods, bits));
+    }
+
+    private SimpleItemItemModel(Builder builder) {
+        itemIds = builder.itemIds;
+        precision = builder.precision;
+        rows = builder.rows;
+        lazyRows = null;
+    }
+
+    private SimpleItemItemModel(long[] items, int bits, int cacheSize, RowSource source) {
+        checkPrecision(bits);
+        itemIds = items;
+        precision = bits;
+        rows = null;
+        lazyRows = new LazyRows(items.length, cacheSize, source);
+    }
+
+    /**
+     * Create a lazy model.
+     * @param items The item dictionary, sorted in increasing order.
+     * @param bits The number of bits per similarity: 64, 16 or 8.
+     * @param cacheSize The maximum number of rows to keep.
+     * @param source The computation that produces rows on demand.
+     * @return The model.
+     */
+    static SimpleItemItemModel lazy(long[] items, int bits, int cacheSize, RowSource source) {
+        return new SimpleItemItemModel(items, bits, cacheSize, source);
+    }
+
+    /**
+     * Computes a lazy model's rows.  It must be safe to call from several threads at once.
+     */
+    static interface RowSource {
+        /**
+         * Compute an item's neighborhood.
+         * @param row The item's index in the dictionary.
+         * @return The item's row.
+         */
+        Row computeRow(int row);
+    }
+
+    /**
+     * A lazy model's rows.  Each computed row is kept in its item's slot, so a hit is a single
+     * array read with no key to box.  At most {@code capacity} rows are resident; when a new
+     * row needs room, a clock hand sweeps the resident rows, evicting the first one not used
+     * since the hand last passed it, which approximates least-recently-used.  Rows are computed
+     * under one of a fixed set of locks picked by row, so concurrent requests for a row wait for
+     * one computation.
+     */
+    private static final class LazyRows {
+        private final RowSource source;
+        private final AtomicReferenceArray<Row> slots;
+        // racy use bits; a lost update only makes the clock's choice slightly less accurate
+        private final boolean[] used;
+        private final Object[] locks;
+        // guards the clock, and every transition of a slot between empty and full
+        private final int[] resident;
+        private int residentCount;
+        private int hand;
+
+        LazyRows(int n, int capacity, RowSource source) {
+            this.source = source;
+            slots = new AtomicReferenceArray<Row>(n);
+            used = new boolean[n];
+            locks = new Object[64];
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = new Object();
+            }
+            resident = new int[Math.max(1, Math.min(n, capacity))];
+        }
+
+        Row get(int row) {
+            Row r = slots.get(row);
+            if (r != null) {
+                used[row] = true;
+                return r;
+            }
+            synchronized (locks[row % locks.length]) {
+                r = slots.get(row);
+                if (r == null) {
+                    r = source.computeRow(row);
+                    admit(row, r);
+                }
+            }
+            return r;
+        }
+
+        private void admit(int row, Row r) {
+            synchronized (resident) {
+                if (residentCount < resident.length) {
+                    resident[residentCount++] = row;
+                } else {
+                    while (used[resident[hand]]) {
+                        used[resident[hand]] = false;
+                        hand = (hand + 1) % resident.length;
+                    }
+                    slots.set(resident[hand], null);
+                    resident[hand] = row;
+                    hand = (hand + 1) % resident.length;
+                }
+                slots.set(row, r);
+            }
+        }
+
+        /**
+         * Get the rows currently resident.
+         */
+        List<Row> residentRows() {
+            List<Row> result = new ArrayList<Row>();
+            synchronized (resident) {
+                for (int i = 0; i < residentCount; i++) {
+                    result.add(slots.get(resident[i]));
+                }
+            }
+            return result;
+        }
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        if (lazyRows != null) {
+            throw new NotSerializableException("lazy item-item models cannot be serialized");
+        }
+        return this;
+    }
+
+    private static void checkPrecision(int bits) {
+        if (bits != 64 && bits != 16 && bits != 8) {
+            throw new IllegalArgumentException("unsupported similarity precision " + bits);
+        }
+    }
+
+    private static Builder fromMap(Map<Long,List<ScoredId>> nbrhoods, int bits) {
+        // the dictionary covers items with rows and items appearing as neighbors; the builder
+        // only emits neighbors that have rows, so the keys usually suffice
+        long[] dictionary = LongUtils.packedSet(nbrhoods.keySet()).toLongArray();
+        LongSet extra = null;
+        for (List<ScoredId> nbrs: nbrhoods.values()) {
+            for (ScoredId nbr: nbrs) {
+                long id = nbr.getId();
+                if (Arrays.binarySearch(dictionary, id) < 0) {
+                    if (extra == null) {
+                        extra = new LongOpenHashSet();
+                    }
+                    extra.add(id);
+                }
+            }
+        }
+        if (extra != null) {
+            int n = dictionary.length;
+            dictionary = Arrays.copyOf(dictionary, n + extra.size());
+            LongIterator iter = extra.iterator();
+            while (iter.hasNext()) {
+                dictionary[n++] = iter.nextLong();
+            }
+            Arrays.sort(dictionary);
+        }
+
+        Builder builder = new Builder(dictionary, bits);
+        for (Map.Entry<Long,List<ScoredId>> entry: nbrhoods.entrySet()) {
+            List<ScoredId> nbrs = entry.getValue();
+            long[] nbrIds = new long[nbrs.size()];
+            double[] scores = new double[nbrs.size()];
+            int k = 0;
+            for (ScoredId nbr: nbrs) {
+                nbrIds[k] = nbr.getId();
+                scores[k] = nbr.getScore();
+                k++;
+            }
+            builder.setRow(entry.getKey(), nbrIds, scores);
+        }
+        return builder;
+    }
+
+    /**
+     * Builder that fills in a model one row at a time, encoding each row as it arrives, so
+     * rows can be streamed in without holding every neighborhood in memory at once.
+     */
+    static class Builder {
+        private final long[] itemIds;
+        private final int precision;
+        private final Row[] rows;
+
+        /**
+         * Create a builder.
+         * @param items The item dictionary, sorted in increasing order.  Every item with a row,
+         *              and every neighbor, must be in it.
+         * @param bits The number of bits per similarity: 64, 16 or 8.
+         */
+        Builder(long[] items, int bits) {
+            checkPrecision(bits);
+            itemIds = items;
+            precision = bits;
+            rows = new Row[items.length];
+            Arrays.fill(rows, Row.EMPTY);
+        }
+
+        /**
+         * Set an item's neighborhood.
+         * @param item The item.
+         * @param nbrIds The neighbor IDs, in non-increasing order of similarity.
+         * @param scores The neighbor similarities, which must not be negative.
+         */
+        void setRow(long item, long[] nbrIds, double[] scores) {
+            int row = Arrays.binarySearch(itemIds, item);
+            if (row < 0) {
+                throw new IllegalArgumentException("item " + item + " not in dictionary");
+            }
+            int size = nbrIds.length;
+            int[] idx = new int[size];
+            for (int k = 0; k < size; k++) {
+                idx[k] = Arrays.binarySearch(itemIds, nbrIds[k]);
+                if (idx[k] < 0) {
+                    throw new IllegalArgumentException("neighbor " + nbrIds[k] + " not in dictionary");
+                }
+            }
+            rows[row] = Row.encode(idx, scores, precision);
+        }
+
+        SimpleItemItemModel build() {
+            return new SimpleItemItemModel(this);
+        }
+    }
+
+    /**
+     * One item's neighborhood: neighbor indexes in decreasing order of similarity, and their
+     * similarities at the model's precision.
+     */
+    public static final class Row implements Serializable {
+        private static final long serialVersionUID = 1L;
+        static final Row EMPTY = new Row(NO_NEIGHBORS, new double[0], null, null, 0);
+
+        private final int[] indexes;
+        private final double[] exactScores;
+        private final short[] shortScores;
+        private final byte[] byteScores;
+        private final double scale;
+
+        private Row(int[] idx, double[] exact, short[] shorts, byte[] bytes, double scale) {
+            indexes = idx;
+            exactScores = exact;
+            shortScores = shorts;
+            byteScores = bytes;
+            this.scale = scale;
+        }
+
+        /**
+         * Encode a row.
+         * @param idx The neighbor indexes, in non-increasing order of similarity.
+         * @param scores The neighbor similarities, which must not be negative.
+         * @param bits The number of bits per similarity: 64, 16 or 8.
+         */
+        static Row encode(int[] idx, double[] scores, int bits) {
+            int size = idx.length;
+            if (size == 0) {
+                return EMPTY;
+            }
+            double max = 0;
+            for (double score: scores) {
+                max = Math.max(max, score);
+            }
+            switch (bits) {
+            case 16: {
+                double scale = max / 0xFFFF;
+                short[] shorts = new short[size];
+                for (int k = 0; k < size; k++) {
+                    shorts[k] = (short) quantize(scores[k], scale, 0xFFFF);
+                }
+                return new Row(idx, null, shorts, null, scale);
+            }
+            case 8: {
+                double scale = max / 0xFF;
+                byte[] bytes = new byte[size];
+                for (int k = 0; k < size; k++) {
+                    bytes[k] = (byte) quantize(scores[k], scale, 0xFF);
+                }
+                return new Row(idx, null, null, bytes, scale);
+            }
+            default:
+                return new Row(idx, scores, null, null, 0);
+            }
+        }
+
+        /**
+         * Get the number of neighbors.
+         */
+        public int size() {
+            return indexes.length;
+        }
+
+        /**
+         * Get the dictionary indexes of the neighbors, in decreasing order of similarity.  The
+         * returned array is the row's internal storage and must not be modified.
+         */
+        public int[] getIndexes() {
+            return indexes;
+        }
+
+        /**
+         * Get a neighbor's similarity, decoding it if it is quantized.
+         * @param k The neighbor's position in {@link #getIndexes()}.
+         */
+        public double getScore(int k) {
+            if (shortScores != null) {
+                return (shortScores[k] & 0xFFFF) * scale;
+            } else if (byteScores != null) {
+                return (byteScores[k] & 0xFF) * scale;
+            } else {
+                return exactScores[k];
+            }
+        }
+
+        /**
+         * Estimate the heap space used by the row, assuming 16-byte headers.
+         */
+        long estimateSizeInBytes() {
+            int bytesPerScore = shortScores != null ? 2 : byteScores != null ? 1 : 8;
+            return 40 + 32 + (4L + bytesPerScore) * indexes.length;
+        }
+    }
+
+    /**
+     * The reverse neighbor index: for each item, the candidates whose rows list it as a
+     * neighbor, and its position in each of those rows.  The entries of all items are stored
+     * back to back, item {@code j}'s from {@link #start(int) start(j)} up to {@code start(j+1)},
+     * in increasing order of candidate.  Each entry takes 4 bytes for the candidate and 2 for the
+     * position (4 if some row has more than 65536 neighbors), plus 4 bytes per item for the
+     * offsets; that is one entry per stored neighbor, so the index is about as large as the
+     * model's neighbor index arrays.
+     */
+    public static final class ReverseNeighbors {
+        private final int[] offsets;
+        private final int[] candidates;
+        private final char[] shortPositions;
+        private final int[] positions;
+
+        private ReverseNeighbors(int[] offsets, int[] candidates, char[] shortPositions,
+                                 int[] positions) {
+            this.offsets = offsets;
+            this.candidates = candidates;
+            this.shortPositions = shortPositions;
+            this.positions = positions;
+        }
+
+        /**
+         * Get the first entry of an item.
+         * @param row The item's index; {@code start(row + 1)} is one past its last entry.
+         */
+        public int start(int row) {
+            return offsets[row];
+        }
+
+        /**
+         * Get the candidate row of an entry.
+         */
+        public int candidate(int entry) {
+            return candidates[entry];
+        }
+
+        /**
+         * Get the item's position in the candidate's row.
+         */
+        public int position(int entry) {
+            return shortPositions != null ? shortPositions[entry] : positions[entry];
+        }
+
+        /**
+         * Estimate the heap space used by the index, assuming 16-byte headers.
+         */
+        long estimateSizeInBytes() {
+            int bytesPerPosition = shortPositions != null ? 2 : 4;
+            return 16 + 3 * 16 + 4L * offsets.length
+                   + (4L + bytesPerPosition) * candidates.length;
+        }
+    }
+
+    /**
+     * Quantize a similarity.  A positive similarity never rounds down to 0, which would leave a
+     * neighbor that takes up a neighborhood slot but carries no weight.
+     */
+    private static int quantize(double score, double scale, int max) {
+        if (scale <= 0 || score <= 0) {
+            return 0;
+        }
+        return (int) Math.min(max, Math.max(1, Math.round(score / scale)));
     }
 
     /**
@@ -35,11 +453,168 @@ public class SimpleItemItemModel implements Serializable {
      * @return The neighbors of the item, sorted by decreasing score.
      */
     public List<ScoredId> getNeighbors(long item) {
-        List<ScoredId> nbrs = neighborhoods.get(item);
-        if (nbrs == null) {
+        int row = getItemIndex(item);
+        if (row < 0) {
             return Collections.emptyList();
-        } else {
-            return nbrs;
         }
+        Row nbrs = getRow(row);
+        if (nbrs.size() == 0) {
+            return Collections.emptyList();
+        }
+        int[] idx = nbrs.getIndexes();
+        ScoredIdListBuilder builder = ScoredIds.newListBuilder();
+        for (int k = 0; k < idx.length; k++) {
+            builder.add(itemIds[idx[k]], nbrs.getScore(k));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Get the number of items in the model's dictionary.
+     */
+    public int getItemCount() {
+        return itemIds.length;
+    }
+
+    /**
+     * Get an item's index in the model's dictionary.
+     * @param item The item ID.
+     * @return The item's index, or a negative value if the item is not in the model.
+     */
+    public int getItemIndex(long item) {
+        return Arrays.binarySearch(itemIds, item);
+    }
+
+    /**
+     * Get the ID of the item at an index in the model's dictionary.
+     */
+    public long getItemId(int index) {
+        return itemIds[index];
+    }
+
+    /**
+     * Get an item's neighborhood.  In a lazy model this may compute it, so callers that look
+     * at several neighbors should fetch the row once.
+     * @param row The item's index.
+     * @return The item's row.
+     */
+    public Row getRow(int row) {
+        if (lazyRows != null) {
+            return lazyRows.get(row);
+        }
+        return rows[row];
+    }
+
+    /**
+     * Get the dictionary indexes of an item's neighbors, in decreasing order of similarity.
+     * The returned array is the model's internal storage and must not be modified.
+     * @param row The item's index.
+     * @return The neighbor indexes.
+     */
+    public int[] getNeighborIndexes(int row) {
+        return getRow(row).getIndexes();
+    }
+
+    /**
+     * Get the similarity of an item's neighbor, decoding it if it is quantized.
+     * @param row The item's index.
+     * @param k The neighbor's position in {@link #getNeighborIndexes(int)}.
+     * @return The similarity.
+     */
+    public double getNeighborScore(int row, int k) {
+        return getRow(row).getScore(k);
+    }
+
+    /**
+     * Get the index of the items that list each item as a neighbor.  The index is built on
+     * first use and kept for the life of the model; see {@link ReverseNeighbors} for its size.
+     * @return The reverse neighbor index.
+     * @throws IllegalStateException if the model is lazy.  Building the index would compute
+     *         every neighborhood and push each one straight back out of the row cache.
+     */
+    public ReverseNeighbors getReverseNeighbors() {
+        if (lazyRows != null) {
+            throw new IllegalStateException("lazy item-item models have no reverse index");
+        }
+        if (reverseNeighbors == null) {
+            synchronized (this) {
+                if (reverseNeighbors == null) {
+                    reverseNeighbors = buildReverseNeighbors();
+                }
+            }
+        }
+        return reverseNeighbors;
+    }
+
+    private ReverseNeighbors buildReverseNeighbors() {
+        int n = itemIds.length;
+        int[] offsets = new int[n + 1];
+        int longest = 0;
+        for (int c = 0; c < n; c++) {
+            int[] idx = getRow(c).getIndexes();
+            longest = Math.max(longest, idx.length);
+            for (int j: idx) {
+                offsets[j + 1]++;
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            offsets[j + 1] += offsets[j];
+        }
+        int total = offsets[n];
+        int[] candidates = new int[total];
+        char[] shortPositions = longest <= 0x10000 ? new char[total] : null;
+        int[] positions = shortPositions == null ? new int[total] : null;
+        // fill in candidate order, so each item's entries come out sorted by candidate
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int c = 0; c < n; c++) {
+            int[] idx = getRow(c).getIndexes();
+            for (int k = 0; k < idx.length; k++) {
+                int e = fill[idx[k]]++;
+                candidates[e] = c;
+                if (shortPositions != null) {
+                    shortPositions[e] = (char) k;
+                } else {
+                    positions[e] = k;
+                }
+            }
+        }
+        return new ReverseNeighbors(offsets, candidates, shortPositions, positions);
+    }
+
+    /**
+     * Query whether the model computes neighborhoods on demand.
+     */
+    public boolean isLazy() {
+        return lazyRows != null;
+    }
+
+    /**
+     * Get the number of bits used for each similarity.
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Estimate the heap space used by the model, assuming 16-byte array headers.  For a lazy
+     * model this counts the rows currently cached.  The reverse neighbor index is counted once
+     * it has been built.
+     * @return The approximate model size in bytes.
+     */
+    public long estimateSizeInBytes() {
+        long bytes = 16 + 8L * itemIds.length;
+        Collection<Row> stored = lazyRows != null ? lazyRows.residentRows() : Arrays.asList(rows);
+        bytes += 16 + 8L * stored.size();
+        for (Row row: stored) {
+            // the empty row is shared
+            if (row != Row.EMPTY) {
+                bytes += row.estimateSizeInBytes();
+            }
+        }
+        ReverseNeighbors reverse = reverseNeighbors;
+        if (reverse != null) {
+            bytes += reverse.estimateSizeInBytes();
+        }
+        return bytes;
     }
 }
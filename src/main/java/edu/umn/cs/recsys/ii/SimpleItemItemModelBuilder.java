@@ -1,5 +1,6 @@
 package edu.umn.cs.recsys.ii;
 
+import edu.umn.cs.recsys.metrics.IIMetrics;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.longs.LongSortedSet;
 import org.grouplens.lenskit.collections.LongUtils;
@@ -21,9 +22,13 @@ import org.grouplens.lenskit.vectors.similarity.CosineVectorSimilarity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
@@ -31,96 +36,337 @@ import java.util.*;
 public class SimpleItemItemModelBuilder implements Provider<SimpleItemItemModel> {
     private final ItemDAO itemDao;
     private final UserEventDAO userEventDao;
+    private final int precision;
+    private final int denseItems;
+    private final int memoryBudget;
+    private final int raterCap;
+    private final String raterPolicy;
+    private final int lazyCacheSize;
+    private final String similarity;
+    private final double damping;
+    private final boolean shareStatistics;
     private static final Logger logger = LoggerFactory.getLogger(SimpleItemItemModelBuilder.class);
 
     @Inject
     public SimpleItemItemModelBuilder(@Transient ItemDAO idao,
-                                      @Transient UserEventDAO uedao) {
+                                      @Transient UserEventDAO uedao,
+                                      @SimilarityPrecision int bits,
+                                      @DenseItemCount int ndense,
+                                      @ModelBuildMemory int memoryMB,
+                                      @HeavyRaterCap int cap,
+                                      @HeavyRaterPolicy String policy,
+                                      @LazyNeighborhoodCache int lazyRows,
+                                      @SimilarityFunction String function,
+                                      @SimilarityDamping double damp,
+                                      @ShareSimilarityStatistics boolean share) {
+        if (!policy.equals("cap") && !policy.equals("sample") && !policy.equals("weight")) {
+            throw new IllegalArgumentException("unknown heavy rater policy " + policy);
+        }
+        if (!PairStatistics.FUNCTIONS.contains(function)) {
+            throw new IllegalArgumentException("unknown similarity function " + function);
+        }
+        if ((share || !function.equals("cosine")) && (ndense > 0 || memoryMB > 0 || lazyRows > 0)) {
+            throw new IllegalArgumentException("DenseItemCount, ModelBuildMemory and "
+                                               + "LazyNeighborhoodCache only apply to the "
+                                               + "unshared cosine build, not " + function
+                                               + (share ? " with shared statistics" : ""));
+        }
         itemDao = idao;
         userEventDao = uedao;
+        precision = bits;
+        denseItems = ndense;
+        memoryBudget = memoryMB;
+        raterCap = cap;
+        raterPolicy = policy;
+        lazyCacheSize = lazyRows;
+        similarity = function;
+        damping = damp;
+        shareStatistics = share;
     }
 
+    /**
+     * Get the model for the current data.  A model already built from identical item vectors
+     * (e.g. for another neighborhood size in an evaluation sweep) is reused.  The key covers the
+     * vectors after heavy raters are trimmed, so different heavy rater settings never share a
+     * model unless they produce the same vectors.
+     */
     @Override
     public SimpleItemItemModel get() {
+        if (shareStatistics || !similarity.equals("cosine")) {
+            return getFromPairStatistics();
+        }
+
         // Get the transposed rating matrix
         // This gives us a map of item IDs to those items' rating vectors
-        Map<Long, ImmutableSparseVector> itemVectors = getItemVectors();
+        // The holder lets an out-of-core build drop the vectors once they are no longer needed.
+        final AtomicReference<Map<Long, ImmutableSparseVector>> itemVectors =
+                new AtomicReference<Map<Long, ImmutableSparseVector>>(getItemVectors());
+        // fingerprinting reads every rating, so only do it when there is a cache to look in
+        String key = null;
+        if (SimpleItemItemModelCache.isEnabled()) {
+            key = "cosine/" + precision + "/" + denseItems + "/" + lazyCacheSize + ":"
+                  + SimpleItemItemModelCache.fingerprint(itemVectors.get());
+        }
+        return SimpleItemItemModelCache.get(key, new Callable<SimpleItemItemModel>() {
+            @Override
+            public SimpleItemItemModel call() {
+                return buildModel(itemVectors);
+            }
+        });
+    }
+
+    /**
+     * Get the model from the shared pair statistics.  When sharing, every similarity function's
+     * model is built in the same pass and they are cached together, so a later configuration
+     * that only changes the function finds its model ready.
+     */
+    private SimpleItemItemModel getFromPairStatistics() {
+        final Map<Long, ImmutableSparseVector> rawVectors =
+                new HashMap<Long, ImmutableSparseVector>();
+        final AtomicReference<Map<Long, ImmutableSparseVector>> itemVectors =
+                new AtomicReference<Map<Long, ImmutableSparseVector>>(getItemVectors(rawVectors));
+        final List<String> functions = shareStatistics
+                ? PairStatistics.FUNCTIONS
+                : Collections.singletonList(similarity);
+        String key = null;
+        if (SimpleItemItemModelCache.isEnabled()) {
+            key = "stats" + functions + "/" + precision + "/" + damping + ":"
+                  + SimpleItemItemModelCache.fingerprint(itemVectors.get()) + "/"
+                  + SimpleItemItemModelCache.fingerprint(rawVectors);
+        }
+        Map<String, SimpleItemItemModel> models =
+                SimpleItemItemModelCache.get(key, new Callable<Map<String, SimpleItemItemModel>>() {
+                    @Override
+                    public Map<String, SimpleItemItemModel> call() {
+                        PairStatistics stats = new PairStatistics(itemVectors.getAndSet(null),
+                                                                  rawVectors);
+                        rawVectors.clear();
+                        return stats.buildModels(functions, precision, damping);
+                    }
+                });
+        return models.get(similarity);
+    }
+
+    /**
+     * Build a model from item vectors, bypassing the model cache.  The caller's reference keeps
+     * the vectors alive for the whole build; {@link #get()} hands them over instead, so an
+     * out-of-core build can release them.
+     * @param itemVectors The item vectors, as returned by {@link #getItemVectors()}.
+     * @return The new model.
+     */
+    public SimpleItemItemModel buildModel(Map<Long, ImmutableSparseVector> itemVectors) {
+        return buildModel(new AtomicReference<Map<Long, ImmutableSparseVector>>(itemVectors));
+    }
 
+    /**
+     * Build a model, taking the item vectors out of their holder.  Only the method that uses
+     * the vectors keeps a reference to them, so none of the frames above it pins them.
+     */
+    private SimpleItemItemModel buildModel(
+            AtomicReference<Map<Long, ImmutableSparseVector>> holder) {
         // Get all items - you might find this useful
-        LongSortedSet items = LongUtils.packedSet(itemVectors.keySet());
-        // Map items to vectors of item similarities
-        Map<Long,MutableSparseVector> itemSimilarities = new HashMap<Long, MutableSparseVector>();
-
-        // TODO Compute the similarities between each pair of items
-        // build matrix
-
-
-        Map<Long,List<ScoredId>> nbrhoods  = new HashMap<Long, List<ScoredId>>();
-        for(Long i : items)
-        {
-            ImmutableSparseVector vectorI = itemVectors.get(i);
-            if(i==77)
-                logger.info("i==7");;
-            //MutableSparseVector similarities = itemSimilarities.get(i);
-            ScoredIdListBuilder scoredIdListBuilder = ScoredIds.newListBuilder();
-            for(Long j : items)
-            {
-                if(i.equals(j)) continue;
-
-                try {
-
-                    ImmutableSparseVector vectorJ = itemVectors.get(j);
-                    double sim = computeSimilarity(vectorI, vectorJ);
-                    if(i==77) logger.debug(String.format("sim[%d,%d]=%f",i,j,sim ));
-                    if(sim > 0.000001)
-                        scoredIdListBuilder.add(j,sim);
-                    //similarities.set(j, sim);
+        LongSortedSet items = LongUtils.packedSet(holder.get().keySet());
+
+        if (lazyCacheSize > 0) {
+            Map<Long, ImmutableSparseVector> itemVectors = holder.getAndSet(null);
+            return buildLazy(itemVectors, items, buildDenseBlock(itemVectors),
+                             precision, lazyCacheSize);
+        }
+
+        BuildStats stats = new BuildStats();
+        SimpleItemItemModel model;
+        if (memoryBudget > 0) {
+            model = buildOutOfCore(holder, items, stats);
+        } else {
+            Map<Long, ImmutableSparseVector> itemVectors = holder.getAndSet(null);
+            DenseSimilarityBlock head = buildDenseBlock(itemVectors);
+            Map<Long,List<ScoredId>> nbrhoods  = new HashMap<Long, List<ScoredId>>();
+            for (long i: items) {
+                nbrhoods.put(i, computeNeighbors(i, items, itemVectors, head, stats));
+            }
+            // It will need to be in a map of longs to lists of Scored IDs to store in the model
+            model = new SimpleItemItemModel(nbrhoods, precision);
+        }
+
+        if (IIMetrics.ENABLED) {
+            stats.report();
+            IIMetrics.get().setModelSize(model.estimateSizeInBytes());
+        }
+        return model;
+    }
+
+    /**
+     * Build the dense similarity block for the most-rated items, if one is configured; the
+     * remaining items go through sparse vectors.
+     * @return The block, or {@code null} if {@link DenseItemCount} is 0.
+     * @throws IllegalArgumentException if the block does not fit in the {@link ModelBuildMemory}
+     *         budget.
+     */
+    @Nullable
+    private DenseSimilarityBlock buildDenseBlock(Map<Long, ImmutableSparseVector> itemVectors) {
+        if (denseItems <= 0) {
+            return null;
+        }
+        int size = Math.min(denseItems, itemVectors.size());
+        long bytes = DenseSimilarityBlock.footprint(size);
+        if (memoryBudget > 0 && bytes > memoryBudget * 1024L * 1024L) {
+            throw new IllegalArgumentException(size + " dense items need " + bytes / (1024 * 1024)
+                                               + "MB, over the " + memoryBudget + "MB budget");
+        }
+        long start = IIMetrics.ENABLED ? System.nanoTime() : 0;
+        DenseSimilarityBlock head = new DenseSimilarityBlock(itemVectors, denseItems);
+        if (IIMetrics.ENABLED) {
+            IIMetrics.get().addPhaseTime(IIMetrics.Phase.SIMILARITY, System.nanoTime() - start);
+        }
+        return head;
+    }
+
+    /**
+     * Build a lazy model, which computes each neighborhood the first time it is used.  The
+     * item vectors stay in memory for the life of the model.  This is static so the model does
+     * not keep the builder, and with it the DAOs, reachable.
+     */
+    private static SimpleItemItemModel buildLazy(final Map<Long, ImmutableSparseVector> itemVectors,
+                                                 final LongSortedSet items,
+                                                 final DenseSimilarityBlock head,
+                                                 final int precision, int cacheSize) {
+        // immutable vectors remember their norms, so compute them all now rather than on the
+        // first request for each item
+        for (ImmutableSparseVector v: itemVectors.values()) {
+            v.norm();
+        }
+        final long[] itemIds = items.toLongArray();
+        logger.info("computing neighborhoods for {} items on demand, keeping {}",
+                    itemIds.length, cacheSize);
+        SimpleItemItemModel.RowSource source = new SimpleItemItemModel.RowSource() {
+            @Override
+            public SimpleItemItemModel.Row computeRow(int row) {
+                BuildStats stats = new BuildStats();
+                List<ScoredId> nbrs = computeNeighbors(itemIds[row], items, itemVectors,
+                                                       head, stats);
+                int[] idx = new int[nbrs.size()];
+                double[] scores = new double[nbrs.size()];
+                int k = 0;
+                for (ScoredId nbr: nbrs) {
+                    idx[k] = Arrays.binarySearch(itemIds, nbr.getId());
+                    scores[k] = nbr.getScore();
+                    k++;
                 }
-                catch (Exception ex)
-                {
-                    logger.info("exception " + ex.getMessage());
+                if (IIMetrics.ENABLED) {
+                    stats.report();
                 }
+                return SimpleItemItemModel.Row.encode(idx, scores, precision);
             }
-            scoredIdListBuilder.sort(ScoreIdComparator);
-            PackedScoredIdList scoredIds = scoredIdListBuilder.build();
-            nbrhoods.put(i,scoredIds);
+        };
+        return SimpleItemItemModel.lazy(itemIds, precision, cacheSize, source);
+    }
 
-        }
+    /**
+     * Build the model in chunks of rows that fit the memory budget.  Each finished chunk is
+     * appended to one temporary spill file, deleted when the build ends; once all similarities
+     * are computed and the item vectors are released, the chunks are read back in item order
+     * straight into the model's compact storage.  Peak memory is the larger of the item
+     * vectors plus one chunk, and the final model, instead of the item vectors plus every
+     * uncompressed neighborhood.  The vectors are taken out of {@code holder}, so this method
+     * has the only reference to them.
+     */
+    private SimpleItemItemModel buildOutOfCore(
+            AtomicReference<Map<Long, ImmutableSparseVector>> holder,
+            LongSortedSet items, BuildStats stats) {
+        Map<Long, ImmutableSparseVector> itemVectors = holder.getAndSet(null);
+        DenseSimilarityBlock head = buildDenseBlock(itemVectors);
 
-        // build list of score
-/*
-        Map<Long,List<ScoredId>> nbrhoods  = new HashMap<Long, List<ScoredId>>();
-        try {
+        // size chunks for the worst case, where every other item is a neighbor
+        long rowBytes = Math.max(1, 16L * items.size());
+        int chunkRows = (int) Math.max(1, Math.min(items.size(),
+                                                   memoryBudget * 1024L * 1024L / rowBytes));
+        logger.info("building {} neighborhoods out of core, {} per chunk", items.size(), chunkRows);
 
-            for(Long i : items)
-            {
-                ScoredIdListBuilder scoredIdListBuilder = ScoredIds.newListBuilder();
-                MutableSparseVector similarities = itemSimilarities.get(i);
-                for(VectorEntry entry : similarities.fast()){
-                    double similarity = entry.getValue();
-                    // keep only positive similarity
-                    if(similarity > 0.000001)
-                        scoredIdListBuilder.add(entry.getKey(),similarity);
-                    if(i == 77) {
-                        logger.info(String.format("neighborr of 77 : (%d, %f)", entry.getKey(), entry.getValue())) ;
-                    }
+        long[] itemIds = items.toLongArray();
+        NeighborhoodSpillFile spill = null;
+        try {
+            spill = new NeighborhoodSpillFile();
+            for (int from = 0; from < itemIds.length; from += chunkRows) {
+                int to = Math.min(itemIds.length, from + chunkRows);
+                List<List<ScoredId>> rows = new ArrayList<List<ScoredId>>(to - from);
+                for (int r = from; r < to; r++) {
+                    rows.add(computeNeighbors(itemIds[r], items, itemVectors, head, stats));
                 }
-                scoredIdListBuilder.sort(ScoreIdComparator);
-                PackedScoredIdList scoredIds = scoredIdListBuilder.build();
-                nbrhoods.put(i,scoredIds);
+                spill.append(Arrays.copyOfRange(itemIds, from, to), rows);
             }
 
-        } catch (Exception ex)
-        {
-            logger.debug(ex.toString());
+            // the vectors are no longer needed; let them go before assembling the model
+            itemVectors = null;
+            head = null;
+            SimpleItemItemModel.Builder builder = new SimpleItemItemModel.Builder(itemIds, precision);
+            spill.readInto(builder);
+            return builder.build();
+        } catch (IOException e) {
+            throw new RuntimeException("error spilling neighborhoods", e);
+        } finally {
+            if (spill != null) {
+                spill.delete();
+            }
         }
-*/
+    }
 
-        // It will need to be in a map of longs to lists of Scored IDs to store in the model
-        return new SimpleItemItemModel(nbrhoods);
+    /**
+     * Compute one item's neighborhood.
+     * @return The item's neighbors with positive similarity, in decreasing order of similarity.
+     */
+    private static List<ScoredId> computeNeighbors(long i, LongSortedSet items,
+                                                   Map<Long, ImmutableSparseVector> itemVectors,
+                                                   DenseSimilarityBlock head, BuildStats stats) {
+        long start = IIMetrics.ENABLED ? System.nanoTime() : 0;
+        ImmutableSparseVector vectorI = itemVectors.get(i);
+        int headI = head == null ? -1 : head.indexOf(i);
+        ScoredIdListBuilder scoredIdListBuilder = ScoredIds.newListBuilder();
+        for (long j: items) {
+            if (i == j) continue;
+
+            int headJ = headI < 0 ? -1 : head.indexOf(j);
+            double sim;
+            if (headJ >= 0) {
+                sim = head.similarity(headI, headJ);
+            } else {
+                ImmutableSparseVector vectorJ = itemVectors.get(j);
+                sim = computeSimilarity(vectorI, vectorJ);
+            }
+            stats.pairs++;
+            if (sim > 0.000001) {
+                scoredIdListBuilder.add(j, sim);
+            } else {
+                stats.pruned++;
+            }
+        }
+        long mid = IIMetrics.ENABLED ? System.nanoTime() : 0;
+        scoredIdListBuilder.sort(ScoreIdComparator);
+        PackedScoredIdList scoredIds = scoredIdListBuilder.build();
+        if (IIMetrics.ENABLED) {
+            stats.simNanos += mid - start;
+            stats.sortNanos += System.nanoTime() - mid;
+        }
+        return scoredIds;
+    }
+
+    /**
+     * Work counters accumulated over a build.
+     */
+    private static class BuildStats {
+        long simNanos;
+        long sortNanos;
+        long pairs;
+        long pruned;
+
+        void report() {
+            IIMetrics metrics = IIMetrics.get();
+            metrics.addPhaseTime(IIMetrics.Phase.SIMILARITY, simNanos);
+            metrics.addPhaseTime(IIMetrics.Phase.SORT, sortNanos);
+            metrics.addPairs(pairs, pruned);
+        }
     }
 
-    private double computeSimilarity(ImmutableSparseVector vectorI, ImmutableSparseVector vectorJ) {
+    private static double computeSimilarity(ImmutableSparseVector vectorI, ImmutableSparseVector vectorJ) {
 
 
         CosineVectorSimilarity similarity = new CosineVectorSimilarity();
@@ -148,6 +394,17 @@ public class SimpleItemItemModelBuilder implements Provider<SimpleItemItemModel>
      * the item, keyed by user ID.
      */
     public Map<Long,ImmutableSparseVector> getItemVectors() {
+        return getItemVectors(null);
+    }
+
+    /**
+     * Load the data into memory, indexed by item, optionally keeping the raw ratings as well.
+     * @param rawVectors If not null, receives the item vectors of raw (uncentered, unweighted)
+     *                   ratings, over the same users as the returned vectors.
+     * @return The mean-centered item vectors, as for {@link #getItemVectors()}.
+     */
+    private Map<Long,ImmutableSparseVector> getItemVectors(
+            @Nullable Map<Long,ImmutableSparseVector> rawVectors) {
         // set up storage for building each item's rating vector
         LongSet items = itemDao.getItemIds();
         // map items to maps from users to ratings
@@ -155,26 +412,73 @@ public class SimpleItemItemModelBuilder implements Provider<SimpleItemItemModel>
         for (long item: items) {
             itemData.put(item, new HashMap<Long, Double>());
         }
+        Map<Long,Map<Long,Double>> rawData = null;
+        if (rawVectors != null) {
+            rawData = new HashMap<Long, Map<Long, Double>>();
+            for (long item: items) {
+                rawData.put(item, new HashMap<Long, Double>());
+            }
+        }
         // itemData should now contain a map to accumulate the ratings of each item
 
         // stream over all user events
+        // when metrics are on, time spent in the cursor counts as load, the rest as transpose
+        long mark = IIMetrics.ENABLED ? System.nanoTime() : 0;
+        long loadNanos = 0;
+        long transposeNanos = 0;
+        long heavyRaters = 0;
+        long ratingsDropped = 0;
+        long pairsRemoved = 0;
+        long untimedRaters = 0;
         Cursor<UserHistory<Event>> stream = userEventDao.streamEventsByUser();
         try {
             for (UserHistory<Event> evt: stream) {
+                if (IIMetrics.ENABLED) {
+                    long now = System.nanoTime();
+                    loadNanos += now - mark;
+                    mark = now;
+                }
                 MutableSparseVector vector = RatingVectorUserHistorySummarizer.makeRatingVector(evt).mutableCopy();
                 // vector is now the user's rating vector
 
                 // Subtract the user's mean rating from each rating prior to computing similarities
                 double meanRating = computeMeanRating(vector);
                 Long userId = evt.getUserId();
+
+                // Rein in heavy raters; the mean above is still over all of their ratings
+                double weight = 1;
+                int nratings = vector.size();
+                if (raterCap > 0 && nratings > raterCap) {
+                    heavyRaters++;
+                    if (raterPolicy.equals("weight")) {
+                        weight = Math.sqrt((double) raterCap / nratings);
+                    } else {
+                        if (!trimRatings(evt, vector)) {
+                            untimedRaters++;
+                        }
+                        int kept = vector.size();
+                        ratingsDropped += nratings - kept;
+                        pairsRemoved += countPairs(nratings) - countPairs(kept);
+                    }
+                }
+
                 for(VectorEntry fast : vector.fast()){
                     long itemId = fast.getKey();
                     double rating = fast.getValue();
                     rating -= meanRating;
+                    rating *= weight;
                     //if(rating < 0) rating = 0;
                     Map<Long, Double> map = itemData.get(itemId);
                     if(map.containsKey(userId)== false )
                         map.put(userId, rating);
+                    if (rawData != null) {
+                        rawData.get(itemId).put(userId, fast.getValue());
+                    }
+                }
+                if (IIMetrics.ENABLED) {
+                    long now = System.nanoTime();
+                    transposeNanos += now - mark;
+                    mark = now;
                 }
 
                 // TODO Normalize this vector and store the ratings in the item data
@@ -199,9 +503,92 @@ public class SimpleItemItemModelBuilder implements Provider<SimpleItemItemModel>
             MutableSparseVector vec = MutableSparseVector.create(entry.getValue());
             itemVectors.put(entry.getKey(), vec.immutable());
         }
+        if (rawData != null) {
+            for (Map.Entry<Long,Map<Long,Double>> entry: rawData.entrySet()) {
+                MutableSparseVector vec = MutableSparseVector.create(entry.getValue());
+                rawVectors.put(entry.getKey(), vec.immutable());
+            }
+        }
+        if (heavyRaters > 0) {
+            logger.info("{} heavy raters ({}): dropped {} ratings, {} co-rated pairs",
+                        heavyRaters, raterPolicy, ratingsDropped, pairsRemoved);
+        }
+        if (untimedRaters > 0) {
+            // one warning per build, after the pass, so a cap run on untimed data is never
+            // reported as anything but what it is
+            logger.warn("HeavyRaterPolicy cap: {} of {} heavy raters have no distinct rating "
+                        + "timestamps, so their ratings were sampled instead of capped",
+                        untimedRaters, heavyRaters);
+        }
+        if (IIMetrics.ENABLED) {
+            IIMetrics metrics = IIMetrics.get();
+            metrics.addPhaseTime(IIMetrics.Phase.LOAD, loadNanos);
+            metrics.addPhaseTime(IIMetrics.Phase.TRANSPOSE, transposeNanos + System.nanoTime() - mark);
+            metrics.addHeavyRaters(heavyRaters, ratingsDropped, pairsRemoved);
+        }
         return itemVectors;
     }
 
+    /**
+     * Cut a heavy rater's rating vector down to {@link #raterCap} ratings.  The {@code cap}
+     * policy keeps the most recent ratings; {@code sample} keeps those whose hash of user and
+     * item ID ranks highest, which is an arbitrary but repeatable choice.  Ties go to the lower
+     * item ID.  If the user's ratings all have the same timestamp, as when the data has no
+     * timestamps at all, {@code cap} falls back to {@code sample} rather than keeping the
+     * lowest item IDs.
+     * @return {@code false} if the {@code cap} policy had to fall back to sampling.
+     */
+    private boolean trimRatings(UserHistory<Event> history, MutableSparseVector vector) {
+        long[] items = vector.keySet().toLongArray();
+        long[] rank = new long[items.length];
+        boolean timed = true;
+        if (raterPolicy.equals("cap")) {
+            Arrays.fill(rank, Long.MIN_VALUE);
+            for (Event e: history) {
+                int idx = Arrays.binarySearch(items, e.getItemId());
+                if (idx >= 0 && e.getTimestamp() > rank[idx]) {
+                    rank[idx] = e.getTimestamp();
+                }
+            }
+            timed = false;
+            for (int i = 1; i < rank.length && !timed; i++) {
+                timed = rank[i] != rank[0];
+            }
+        }
+        if (!raterPolicy.equals("cap") || !timed) {
+            long user = history.getUserId();
+            for (int i = 0; i < items.length; i++) {
+                rank[i] = SimpleItemItemModelCache.mix(user * 0x9E3779B97F4A7C15L + items[i]);
+            }
+        }
+
+        // the cap-th highest rank is the threshold; keep everything above it, then fill up
+        // with items at the threshold in ID order
+        long[] sorted = rank.clone();
+        Arrays.sort(sorted);
+        long threshold = sorted[items.length - raterCap];
+        int above = 0;
+        for (long r: rank) {
+            if (r > threshold) {
+                above++;
+            }
+        }
+        int atThreshold = raterCap - above;
+        for (int i = 0; i < items.length; i++) {
+            if (rank[i] < threshold || (rank[i] == threshold && atThreshold-- <= 0)) {
+                vector.unset(items[i]);
+            }
+        }
+        return timed;
+    }
+
+    /**
+     * The number of item pairs co-rated by a user with {@code n} ratings.
+     */
+    private static long countPairs(int n) {
+        return (long) n * (n - 1) / 2;
+    }
+
     private double computeMeanRating(MutableSparseVector vector) {
 
         double sum = 0;
@@ -0,0 +1,153 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.lenskit.vectors.ImmutableSparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Process-wide cache of built item-item models, keyed by a fingerprint of the item rating
+ * vectors they were built from.
+ *
+ * <p>The model does not depend on the neighborhood size, so an evaluation that sweeps
+ * neighborhood sizes over the same training data needs only one model per partition.  Entries
+ * may also hold a map of several models built together, such as every similarity function's
+ * model from one pass over the item pairs.  When several threads ask for the same model at
+ * once, one builds it and the others wait for it.</p>
+ *
+ * <p>The cache keeps the {@code ii.modelCache.size} most recently used models.  It is off
+ * (size 0) by default, since a long-lived process that builds one model only pins memory with
+ * it; the evaluation script turns it on.  The size is read on each use, so it can be set after
+ * this class is loaded.</p>
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+final class SimpleItemItemModelCache {
+    private static final Logger logger = LoggerFactory.getLogger(SimpleItemItemModelCache.class);
+    private static final String SIZE_PROPERTY = "ii.modelCache.size";
+
+    private static final Map<String,FutureTask<?>> cache =
+            new LinkedHashMap<String, FutureTask<?>>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FutureTask<?>> eldest) {
+                    return size() > capacity();
+                }
+            };
+
+    private SimpleItemItemModelCache() {}
+
+    private static int capacity() {
+        return Integer.getInteger(SIZE_PROPERTY, 0);
+    }
+
+    /**
+     * Query whether the cache is on.  Builders check this before computing a key, since the
+     * {@linkplain #fingerprint(Map) fingerprint} is a pass over every rating.
+     */
+    static boolean isEnabled() {
+        return capacity() > 0;
+    }
+
+    /**
+     * Get a cached model, building it if necessary.
+     * @param key The cache key; it must identify both the input data and the build settings.
+     *            If it is {@code null}, the model is built without consulting the cache.
+     * @param builder The computation that builds the model (or models).
+     * @return The model (or models).
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T get(@Nullable String key, Callable<T> builder) {
+        if (key == null || capacity() <= 0) {
+            try {
+                return builder.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException("error building model", e);
+            }
+        }
+
+        FutureTask<T> task;
+        boolean owner = false;
+        synchronized (cache) {
+            // keys name what is built, so an entry always holds the builder's type
+            task = (FutureTask<T>) cache.get(key);
+            if (task == null) {
+                task = new FutureTask<T>(builder);
+                cache.put(key, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            task.run();
+        } else {
+            logger.info("reusing cached model {}", key);
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted waiting for model", e);
+        } catch (ExecutionException e) {
+            synchronized (cache) {
+                if (cache.get(key) == task) {
+                    cache.remove(key);
+                }
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException("error building model", cause);
+            }
+        }
+    }
+
+    /**
+     * Compute a fingerprint of a set of item vectors.  Two independent 64-bit hashes over every
+     * (item, user, value) triple make accidental collisions vanishingly unlikely.
+     * @param itemVectors The item vectors.
+     * @return A hex string identifying the vectors' contents.
+     */
+    static String fingerprint(Map<Long,ImmutableSparseVector> itemVectors) {
+        long h1 = 0;
+        long h2 = 0;
+        long n = 0;
+        // combine per-item hashes with addition so the map's iteration order does not matter
+        for (Map.Entry<Long,ImmutableSparseVector> entry: itemVectors.entrySet()) {
+            long item = entry.getKey();
+            long a = mix(item);
+            long b = mix(item ^ 0x5DEECE66DL);
+            for (VectorEntry e: entry.getValue().fast()) {
+                long v = Double.doubleToLongBits(e.getValue());
+                a = mix(a ^ e.getKey()) ^ v;
+                b = mix(b + v) ^ e.getKey();
+                n++;
+            }
+            h1 += mix(a);
+            h2 += mix(b);
+        }
+        return String.format("%016x%016x-%d", h1, h2, n);
+    }
+
+    /**
+     * Scramble the bits of a value (the MurmurHash3 finalizer).
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+}
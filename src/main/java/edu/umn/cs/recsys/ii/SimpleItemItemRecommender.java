@@ -0,0 +1,228 @@
+package edu.umn.cs.recsys.ii;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.basic.AbstractItemRecommender;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.knn.NeighborhoodSize;
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.scored.ScoredIdListBuilder;
+import org.grouplens.lenskit.scored.ScoredIds;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Item recommender that starts from the items a user has rated instead of scoring the whole
+ * catalog.
+ *
+ * <p>Only items that list one of the user's rated items as a neighbor can get a score, so the
+ * recommender looks those up in the model's reverse neighbor index and scores just them.  For
+ * each candidate it takes the first {@link NeighborhoodSize} rated neighbors in the candidate's
+ * row, exactly as {@link SimpleItemItemScorer} does, so the scores are the same as scoring every
+ * item; the work is proportional to the number of reverse neighbor entries of the user's rated
+ * items.  By default the user's rated items are excluded.  Lazy models fall back to scoring
+ * every candidate with the item scorer, since they have no reverse index.</p>
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class SimpleItemItemRecommender extends AbstractItemRecommender {
+    private final SimpleItemItemModel model;
+    private final UserEventDAO userEvents;
+    private final ItemScorer scorer;
+    private final int neighborhoodSize;
+
+    @Inject
+    public SimpleItemItemRecommender(SimpleItemItemModel m, UserEventDAO dao, ItemScorer scorer,
+                                     @NeighborhoodSize int nnbrs) {
+        model = m;
+        userEvents = dao;
+        this.scorer = scorer;
+        neighborhoodSize = nnbrs;
+    }
+
+    @Override
+    protected List<ScoredId> recommend(long user, int n, @Nullable LongSet candidates,
+                                       @Nullable LongSet exclude) {
+        UserRatings ratings = UserRatings.load(userEvents, model, user);
+        if (exclude == null) {
+            exclude = ratings.getVector().keySet();
+        }
+        if (model.isLazy()) {
+            return recommendByScoring(user, n, candidates, exclude);
+        }
+
+        SimpleItemItemModel.ReverseNeighbors reverse = model.getReverseNeighbors();
+        int nrated = ratings.size();
+        int total = 0;
+        for (int r = 0; r < nrated; r++) {
+            int idx = ratings.getIndex(r);
+            total += reverse.start(idx + 1) - reverse.start(idx);
+        }
+
+        // gather every (candidate, position) where a rated item appears in a candidate's row,
+        // packing the candidate in the high 32 bits; sorting groups them by candidate, and
+        // within a candidate by position
+        long[] entries = new long[total];
+        int fill = 0;
+        for (int r = 0; r < nrated; r++) {
+            int idx = ratings.getIndex(r);
+            int end = reverse.start(idx + 1);
+            for (int e = reverse.start(idx); e < end; e++) {
+                entries[fill++] = ((long) reverse.candidate(e) << 32) | reverse.position(e);
+            }
+        }
+        Arrays.sort(entries);
+
+        TopScores top = new TopScores(n);
+        int start = 0;
+        while (start < total) {
+            int c = (int) (entries[start] >>> 32);
+            int end = start + 1;
+            while (end < total && (int) (entries[end] >>> 32) == c) {
+                end++;
+            }
+            long item = model.getItemId(c);
+            if ((candidates == null || candidates.contains(item)) && !exclude.contains(item)) {
+                SimpleItemItemModel.Row row = model.getRow(c);
+                int[] nbrs = row.getIndexes();
+                double weightedSum = 0;
+                double sumSim = 0;
+                // start + neighborhoodSize overflows for an "unlimited" neighborhood size
+                int last = end - start > neighborhoodSize ? start + neighborhoodSize : end;
+                for (int x = start; x < last; x++) {
+                    int k = (int) entries[x];
+                    int pos = ratings.find(nbrs[k]);
+                    double sim = row.getScore(k);
+                    weightedSum += ratings.getValue(pos) * sim;
+                    sumSim += Math.abs(sim);
+                }
+                if (sumSim > 0) {
+                    top.add(item, weightedSum / sumSim);
+                }
+            }
+            start = end;
+        }
+        return top.finish();
+    }
+
+    /**
+     * Recommend by scoring every candidate, for models without a usable reverse index.
+     */
+    private List<ScoredId> recommendByScoring(long user, int n, @Nullable LongSet candidates,
+                                              LongSet exclude) {
+        LongArrayList toScore = new LongArrayList();
+        if (candidates != null) {
+            for (long item: candidates) {
+                if (!exclude.contains(item)) {
+                    toScore.add(item);
+                }
+            }
+        } else {
+            for (int i = 0; i < model.getItemCount(); i++) {
+                long item = model.getItemId(i);
+                if (!exclude.contains(item)) {
+                    toScore.add(item);
+                }
+            }
+        }
+        MutableSparseVector scores = MutableSparseVector.create(toScore);
+        scorer.score(user, scores);
+        TopScores top = new TopScores(n);
+        for (VectorEntry e: scores.fast()) {
+            top.add(e.getKey(), e.getValue());
+        }
+        return top.finish();
+    }
+
+    /**
+     * Accumulator for the highest-scoring items, keeping a min-heap of at most {@code n} items
+     * (or every item, if {@code n} is negative).
+     */
+    private static class TopScores {
+        private final int limit;
+        private long[] items;
+        private double[] scores;
+        private int size;
+
+        TopScores(int n) {
+            limit = n;
+            int capacity = n >= 0 ? Math.min(n, 64) : 64;
+            items = new long[capacity];
+            scores = new double[capacity];
+        }
+
+        void add(long item, double score) {
+            if (limit < 0 || size < limit) {
+                if (size == items.length) {
+                    int capacity = limit < 0 ? size * 2 : Math.min(limit, size * 2);
+                    items = Arrays.copyOf(items, capacity);
+                    scores = Arrays.copyOf(scores, capacity);
+                }
+                items[size] = item;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (limit > 0 && score > scores[0]) {
+                items[0] = item;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (scores[parent] <= scores[i]) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int least = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && scores[left] < scores[least]) {
+                    least = left;
+                }
+                if (right < size && scores[right] < scores[least]) {
+                    least = right;
+                }
+                if (least == i) {
+                    return;
+                }
+                swap(i, least);
+                i = least;
+            }
+        }
+
+        private void swap(int i, int j) {
+            long item = items[i];
+            items[i] = items[j];
+            items[j] = item;
+            double score = scores[i];
+            scores[i] = scores[j];
+            scores[j] = score;
+        }
+
+        /**
+         * Get the accumulated items in decreasing order of score.
+         */
+        List<ScoredId> finish() {
+            ScoredIdListBuilder builder = ScoredIds.newListBuilder();
+            for (int i = 0; i < size; i++) {
+                builder.add(items[i], scores[i]);
+            }
+            builder.sort(SimpleItemItemModelBuilder.ScoreIdComparator);
+            return builder.build();
+        }
+    }
+}
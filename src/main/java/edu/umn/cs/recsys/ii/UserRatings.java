@@ -0,0 +1,98 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.history.History;
+import org.grouplens.lenskit.data.history.RatingVectorUserHistorySummarizer;
+import org.grouplens.lenskit.data.history.UserHistory;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+
+import java.util.Arrays;
+
+/**
+ * A user's ratings, unpacked once as model indexes so that looking up a neighbor costs a single
+ * probe.  The model's dictionary is sorted, so the indexes come out sorted too.  Shared by the
+ * scorer and the recommender so they always read a user's ratings the same way.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+final class UserRatings {
+    private final SparseVector vector;
+    private final int[] indexes;
+    private final double[] values;
+    private final int size;
+
+    private UserRatings(SparseVector vector, int[] indexes, double[] values, int size) {
+        this.vector = vector;
+        this.indexes = indexes;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Load a user's ratings.
+     * @param dao The DAO to read the user's events from.
+     * @param model The model whose indexes to use.  Rated items not in the model are left out
+     *              of the indexes, but not of {@link #getVector()}.
+     * @param user The user ID.
+     */
+    static UserRatings load(UserEventDAO dao, SimpleItemItemModel model, long user) {
+        UserHistory<Rating> history = dao.getEventsForUser(user, Rating.class);
+        if (history == null) {
+            history = History.forUser(user);
+        }
+        SparseVector ratings = RatingVectorUserHistorySummarizer.makeRatingVector(history);
+
+        int[] indexes = new int[ratings.size()];
+        double[] values = new double[ratings.size()];
+        int n = 0;
+        for (VectorEntry e: ratings.fast()) {
+            int idx = model.getItemIndex(e.getKey());
+            if (idx >= 0) {
+                indexes[n] = idx;
+                values[n] = e.getValue();
+                n++;
+            }
+        }
+        return new UserRatings(ratings, indexes, values, n);
+    }
+
+    /**
+     * Get the user's rating vector, by item ID.
+     */
+    SparseVector getVector() {
+        return vector;
+    }
+
+    /**
+     * Get the number of rated items in the model.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the model index of the {@code k}th rated item.
+     */
+    int getIndex(int k) {
+        return indexes[k];
+    }
+
+    /**
+     * Get the {@code k}th rating.
+     */
+    double getValue(int k) {
+        return values[k];
+    }
+
+    /**
+     * Find a rated item.
+     * @param index The item's model index.
+     * @return The item's position, for {@link #getValue(int)}, or a negative number if the user
+     *         has not rated it.
+     */
+    int find(int index) {
+        return Arrays.binarySearch(indexes, 0, size, index);
+    }
+}
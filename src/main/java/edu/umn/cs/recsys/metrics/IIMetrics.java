@@ -0,0 +1,296 @@
+package edu.umn.cs.recsys.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide metrics for the item-item pipeline.
+ *
+ * <p>Metrics are off unless the JVM is started with {@code -Dii.metrics=true}.  Callers guard
+ * every update with {@link #ENABLED}; since it is a static final constant, the JIT removes the
+ * instrumentation entirely when metrics are disabled.  When enabled, the metrics are registered
+ * as the MBean {@value #OBJECT_NAME}, and if {@code ii.metrics.dumpInterval} is set to a number
+ * of seconds they are also written to the log at that interval.</p>
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public final class IIMetrics implements IIMetricsMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(IIMetrics.class);
+
+    /**
+     * Whether metrics are being collected.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("ii.metrics");
+    public static final String OBJECT_NAME = "edu.umn.cs.recsys:type=ItemItemMetrics";
+
+    private static final IIMetrics instance = new IIMetrics();
+
+    static {
+        if (ENABLED) {
+            instance.register();
+        }
+    }
+
+    /**
+     * Phases of the model build.
+     */
+    public static enum Phase {
+        LOAD, TRANSPOSE, SIMILARITY, SORT
+    }
+
+    /**
+     * Data files loaded by the DAOs.
+     */
+    public static enum Source {
+        RATINGS, TITLES, USERS, TAGS
+    }
+
+    private final AtomicLong[] phaseNanos = newCounters(Phase.values().length);
+    private final AtomicLong[] loadNanos = newCounters(Source.values().length);
+    private final AtomicLong pairsEvaluated = new AtomicLong();
+    private final AtomicLong pairsPruned = new AtomicLong();
+    private final AtomicLong modelBytes = new AtomicLong();
+    private final AtomicLong heavyRaters = new AtomicLong();
+    private final AtomicLong ratingsDropped = new AtomicLong();
+    private final AtomicLong pairsRemoved = new AtomicLong();
+    private final LatencyHistogram scoreLatency = new LatencyHistogram();
+    private final LatencyHistogram neighborHits = new LatencyHistogram();
+
+    private IIMetrics() {}
+
+    /**
+     * Get the metrics instance.
+     */
+    public static IIMetrics get() {
+        return instance;
+    }
+
+    public void addPhaseTime(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()].addAndGet(nanos);
+    }
+
+    public void addLoadTime(Source source, long nanos) {
+        loadNanos[source.ordinal()].addAndGet(nanos);
+    }
+
+    public void addPairs(long evaluated, long pruned) {
+        pairsEvaluated.addAndGet(evaluated);
+        pairsPruned.addAndGet(pruned);
+    }
+
+    public void setModelSize(long bytes) {
+        modelBytes.set(bytes);
+    }
+
+    public void addHeavyRaters(long users, long ratings, long pairs) {
+        heavyRaters.addAndGet(users);
+        ratingsDropped.addAndGet(ratings);
+        pairsRemoved.addAndGet(pairs);
+    }
+
+    public void recordScoreLatency(long nanos) {
+        scoreLatency.record(nanos);
+    }
+
+    public void recordNeighborHits(int hits) {
+        neighborHits.record(hits);
+    }
+
+    @Override
+    public long getBuildLoadMillis() {
+        return millis(phaseNanos[Phase.LOAD.ordinal()]);
+    }
+
+    @Override
+    public long getBuildTransposeMillis() {
+        return millis(phaseNanos[Phase.TRANSPOSE.ordinal()]);
+    }
+
+    @Override
+    public long getBuildSimilarityMillis() {
+        return millis(phaseNanos[Phase.SIMILARITY.ordinal()]);
+    }
+
+    @Override
+    public long getBuildSortMillis() {
+        return millis(phaseNanos[Phase.SORT.ordinal()]);
+    }
+
+    @Override
+    public long getPairsEvaluated() {
+        return pairsEvaluated.get();
+    }
+
+    @Override
+    public long getPairsPruned() {
+        return pairsPruned.get();
+    }
+
+    @Override
+    public long getModelSizeBytes() {
+        return modelBytes.get();
+    }
+
+    @Override
+    public long getHeavyRaters() {
+        return heavyRaters.get();
+    }
+
+    @Override
+    public long getHeavyRaterRatingsDropped() {
+        return ratingsDropped.get();
+    }
+
+    @Override
+    public long getHeavyRaterPairsRemoved() {
+        return pairsRemoved.get();
+    }
+
+    @Override
+    public long getScoreRequests() {
+        return scoreLatency.getCount();
+    }
+
+    @Override
+    public double getScoreLatencyMeanMicros() {
+        return scoreLatency.getMean() / 1000;
+    }
+
+    @Override
+    public long getScoreLatencyP50Micros() {
+        return scoreLatency.getValueAtPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getScoreLatencyP99Micros() {
+        return scoreLatency.getValueAtPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getScoreLatencyP999Micros() {
+        return scoreLatency.getValueAtPercentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getScoreLatencyMaxMicros() {
+        return scoreLatency.getMax() / 1000;
+    }
+
+    @Override
+    public double getNeighborHitsMean() {
+        return neighborHits.getMean();
+    }
+
+    @Override
+    public long getNeighborHitsP50() {
+        return neighborHits.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getRatingLoadMillis() {
+        return millis(loadNanos[Source.RATINGS.ordinal()]);
+    }
+
+    @Override
+    public long getTitleLoadMillis() {
+        return millis(loadNanos[Source.TITLES.ordinal()]);
+    }
+
+    @Override
+    public long getUserLoadMillis() {
+        return millis(loadNanos[Source.USERS.ordinal()]);
+    }
+
+    @Override
+    public long getTagLoadMillis() {
+        return millis(loadNanos[Source.TAGS.ordinal()]);
+    }
+
+    @Override
+    public void reset() {
+        for (AtomicLong c: phaseNanos) {
+            c.set(0);
+        }
+        for (AtomicLong c: loadNanos) {
+            c.set(0);
+        }
+        pairsEvaluated.set(0);
+        pairsPruned.set(0);
+        modelBytes.set(0);
+        heavyRaters.set(0);
+        ratingsDropped.set(0);
+        pairsRemoved.set(0);
+        scoreLatency.reset();
+        neighborHits.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                             "build[load=%dms, transpose=%dms, similarity=%dms, sort=%dms, " +
+                             "pairs=%d, pruned=%d, model=%dB, " +
+                             "heavyRaters=%d, droppedRatings=%d, droppedPairs=%d] " +
+                             "score[n=%d, mean=%.1fus, p50=%dus, p99=%dus, p999=%dus, max=%dus, " +
+                             "hits=%.1f] " +
+                             "load[ratings=%dms, titles=%dms, users=%dms, tags=%dms]",
+                             getBuildLoadMillis(), getBuildTransposeMillis(),
+                             getBuildSimilarityMillis(), getBuildSortMillis(),
+                             getPairsEvaluated(), getPairsPruned(), getModelSizeBytes(),
+                             getHeavyRaters(), getHeavyRaterRatingsDropped(),
+                             getHeavyRaterPairsRemoved(),
+                             getScoreRequests(), getScoreLatencyMeanMicros(),
+                             getScoreLatencyP50Micros(), getScoreLatencyP99Micros(),
+                             getScoreLatencyP999Micros(), getScoreLatencyMaxMicros(),
+                             getNeighborHitsMean(),
+                             getRatingLoadMillis(), getTitleLoadMillis(),
+                             getUserLoadMillis(), getTagLoadMillis());
+    }
+
+    private void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                             .registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            logger.warn("cannot register metrics MBean", e);
+        }
+        long interval = Long.getLong("ii.metrics.dumpInterval", 0);
+        if (interval > 0) {
+            ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ii-metrics-dump");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            exec.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    logger.info("metrics: {}", IIMetrics.this);
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    private static AtomicLong[] newCounters(int n) {
+        AtomicLong[] counters = new AtomicLong[n];
+        for (int i = 0; i < n; i++) {
+            counters[i] = new AtomicLong();
+        }
+        return counters;
+    }
+
+    private static long millis(AtomicLong nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos.get());
+    }
+}
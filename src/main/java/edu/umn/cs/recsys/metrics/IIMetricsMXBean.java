@@ -0,0 +1,40 @@
+package edu.umn.cs.recsys.metrics;
+
+/**
+ * JMX view of the item-item pipeline metrics.  Times are in milliseconds unless the name says
+ * otherwise.
+ *
+ * @see IIMetrics
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public interface IIMetricsMXBean {
+    long getBuildLoadMillis();
+    long getBuildTransposeMillis();
+    long getBuildSimilarityMillis();
+    long getBuildSortMillis();
+    long getPairsEvaluated();
+    long getPairsPruned();
+    long getModelSizeBytes();
+    long getHeavyRaters();
+    long getHeavyRaterRatingsDropped();
+    long getHeavyRaterPairsRemoved();
+
+    long getScoreRequests();
+    double getScoreLatencyMeanMicros();
+    long getScoreLatencyP50Micros();
+    long getScoreLatencyP99Micros();
+    long getScoreLatencyP999Micros();
+    long getScoreLatencyMaxMicros();
+    double getNeighborHitsMean();
+    long getNeighborHitsP50();
+
+    long getRatingLoadMillis();
+    long getTitleLoadMillis();
+    long getUserLoadMillis();
+    long getTagLoadMillis();
+
+    /**
+     * Clear all counters and histograms.
+     */
+    void reset();
+}
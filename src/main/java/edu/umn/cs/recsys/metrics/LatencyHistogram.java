@@ -0,0 +1,113 @@
+package edu.umn.cs.recsys.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of non-negative long values (typically nanoseconds) with log-linear
+ * buckets, in the style of HdrHistogram.  Values below 32 are counted exactly; above that,
+ * each power of two is split into 16 buckets, so reported percentiles are within about 6% of
+ * the true value.  Recording is a single atomic increment and never allocates.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 32;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int HALF_BITS = 4;
+    private static final int BUCKETS = SUB_BUCKETS + 59 * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.  Negative values are recorded as 0.
+     * @param value The value to record.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucket(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Get the number of recorded values.
+     */
+    public long getCount() {
+        return total.get();
+    }
+
+    /**
+     * Get the largest recorded value.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the mean of the recorded values, or 0 if there are none.
+     */
+    public double getMean() {
+        long n = total.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Get an (upper bound on the) value at a percentile.
+     * @param percentile The percentile, in the range [0,100].
+     * @return The value at that percentile, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = total.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clear all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - HALF_BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / HALF + 1;
+        long mantissa = (bucket - SUB_BUCKETS) % HALF + HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
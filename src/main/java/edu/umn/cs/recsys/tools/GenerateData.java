@@ -0,0 +1,308 @@
+package edu.umn.cs.recsys.tools;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.cursors.AbstractPollingCursor;
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.event.Ratings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generate a synthetic data set in the formats of the files in {@code data/}, for scaling tests.
+ *
+ * <p>Item popularity follows a Zipf distribution over a fixed random ranking of the items, and
+ * the number of ratings per user follows a Pareto distribution, so a few items and a few users
+ * account for most of the ratings, as in real rating data.  Ratings are written to disk as they
+ * are generated; memory use depends only on the item count and the per-user rating cap, not on
+ * the number of users or ratings.  The same seed always produces the same files.  The
+ * benchmarks use the same generator through {@link #ratings()}.</p>
+ *
+ * <p>Usage: {@code gen-data [--users N] [--items N] [--min-ratings N] [--max-ratings N]
+ * [--item-exponent X] [--user-exponent X] [--seed N] [--output DIR]}</p>
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class GenerateData {
+    private static final Logger logger = LoggerFactory.getLogger(GenerateData.class);
+    private static final int TAG_VOCABULARY = 1000;
+    private static final String USAGE =
+            "usage: gen-data [--users N] [--items N] [--min-ratings N] [--max-ratings N]\n"
+            + "                [--item-exponent X] [--user-exponent X] [--seed N] [--output DIR]\n"
+            + "  counts are positive, with min-ratings <= max-ratings;\n"
+            + "  item-exponent >= 0 (0 is uniform) and user-exponent > 1";
+
+    private final int userCount;
+    private final int itemCount;
+    private final int minRatings;
+    private final int maxRatings;
+    private final double itemExponent;
+    private final double userExponent;
+    private final long seed;
+
+    /**
+     * Construct a generator.
+     * @param users The number of users.
+     * @param items The number of items.
+     * @param minRatings The fewest ratings a user makes.
+     * @param maxRatings The most ratings a user makes.
+     * @param itemExponent The exponent of the item popularity distribution; 0 makes every item
+     *                     equally popular.
+     * @param userExponent The exponent of the user activity distribution.
+     * @param seed The random seed.
+     * @throws IllegalArgumentException if a count is not positive, {@code minRatings} exceeds
+     *         {@code maxRatings}, {@code itemExponent} is negative, or {@code userExponent} is
+     *         not greater than 1 (the activity distribution has no finite mean otherwise).
+     */
+    public GenerateData(int users, int items, int minRatings, int maxRatings,
+                        double itemExponent, double userExponent, long seed) {
+        if (users <= 0 || items <= 0) {
+            throw new IllegalArgumentException("user and item counts must be positive");
+        }
+        if (minRatings <= 0 || maxRatings < minRatings) {
+            throw new IllegalArgumentException("need 0 < min-ratings <= max-ratings, got "
+                                               + minRatings + " and " + maxRatings);
+        }
+        if (!(itemExponent >= 0) || Double.isInfinite(itemExponent)) {
+            throw new IllegalArgumentException("item exponent must be finite and >= 0, got "
+                                               + itemExponent);
+        }
+        if (!(userExponent > 1) || Double.isInfinite(userExponent)) {
+            throw new IllegalArgumentException("user exponent must be finite and > 1, got "
+                                               + userExponent);
+        }
+        userCount = users;
+        itemCount = items;
+        this.minRatings = minRatings;
+        this.maxRatings = maxRatings;
+        this.itemExponent = itemExponent;
+        this.userExponent = userExponent;
+        this.seed = seed;
+    }
+
+    /**
+     * Main entry point to the program.
+     * @param args The generator options.
+     */
+    public static void main(String[] args) throws IOException {
+        int users = 10000;
+        int items = 1000;
+        int minRatings = 5;
+        int maxRatings = 1000;
+        double itemExponent = 1.0;
+        double userExponent = 2.0;
+        long seed = 42;
+        File outputDir = new File("target/synthetic");
+        GenerateData gen;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String opt = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("missing value for " + opt);
+                }
+                String val = args[++i];
+                if (opt.equals("--users")) {
+                    users = Integer.parseInt(val);
+                } else if (opt.equals("--items")) {
+                    items = Integer.parseInt(val);
+                } else if (opt.equals("--min-ratings")) {
+                    minRatings = Integer.parseInt(val);
+                } else if (opt.equals("--max-ratings")) {
+                    maxRatings = Integer.parseInt(val);
+                } else if (opt.equals("--item-exponent")) {
+                    itemExponent = Double.parseDouble(val);
+                } else if (opt.equals("--user-exponent")) {
+                    userExponent = Double.parseDouble(val);
+                } else if (opt.equals("--seed")) {
+                    seed = Long.parseLong(val);
+                } else if (opt.equals("--output")) {
+                    outputDir = new File(val);
+                } else {
+                    throw new IllegalArgumentException("unknown option " + opt);
+                }
+            }
+            gen = new GenerateData(users, items, minRatings, maxRatings,
+                                   itemExponent, userExponent, seed);
+        } catch (IllegalArgumentException e) {
+            // this includes NumberFormatException for malformed values
+            System.err.println("gen-data: " + e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            throw new AssertionError(); // to de-confuse unreachable code detection
+        }
+        gen.run(outputDir);
+    }
+
+    /**
+     * Write all four data files.
+     * @param outputDir The directory to write them to.
+     */
+    public void run(File outputDir) throws IOException {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("cannot create directory " + outputDir);
+        }
+        logger.info("generating {} users and {} items into {}",
+                    userCount, itemCount, outputDir);
+        long[] itemIds = shuffledItemIds(new Random(seed));
+        writeTitles(outputDir, itemIds);
+        writeTags(outputDir, itemIds, new Random(seed + 1));
+        writeUsers(outputDir, new Random(seed + 2));
+        long n = writeRatings(outputDir);
+        logger.info("wrote {} ratings", n);
+    }
+
+    /**
+     * Stream the ratings, grouped by user.  Each user's ratings are generated as the cursor
+     * reaches them, so memory use does not grow with the number of users.
+     * @return A cursor of the ratings {@link #run(File)} writes to {@code ratings.csv}.
+     */
+    public Cursor<Rating> ratings() {
+        return new RatingCursor(shuffledItemIds(new Random(seed)), new Random(seed + 3));
+    }
+
+    /**
+     * Assign item IDs to popularity ranks.  Element 0 is the ID of the most popular item.
+     */
+    private long[] shuffledItemIds(Random rng) {
+        long[] ids = new long[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            ids[i] = i + 1;
+        }
+        for (int i = itemCount - 1; i > 0; i--) {
+            int j = rng.nextInt(i + 1);
+            long tmp = ids[i];
+            ids[i] = ids[j];
+            ids[j] = tmp;
+        }
+        return ids;
+    }
+
+    private void writeTitles(File dir, long[] itemIds) throws IOException {
+        long[] sorted = Arrays.copyOf(itemIds, itemIds.length);
+        Arrays.sort(sorted);
+        Writer out = open(dir, "movie-titles.csv");
+        try {
+            for (long item: sorted) {
+                out.write(String.format(Locale.ROOT, "%d,Synthetic Movie %d (%d)\n",
+                                        item, item, 1950 + item % 64));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeTags(File dir, long[] itemIds, Random rng) throws IOException {
+        // popular items get more tag applications
+        Writer out = open(dir, "movie-tags.csv");
+        try {
+            for (int rank = 0; rank < itemIds.length; rank++) {
+                int count = (int) (20 / Math.pow(rank + 1, 0.5));
+                for (int i = 0; i < count; i++) {
+                    out.write(String.format(Locale.ROOT, "%d,tag%d\n",
+                                            itemIds[rank], rng.nextInt(TAG_VOCABULARY)));
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeUsers(File dir, Random rng) throws IOException {
+        Writer out = open(dir, "users.csv");
+        try {
+            for (long user = 1; user <= userCount; user++) {
+                UUID name = new UUID(rng.nextLong(), rng.nextLong());
+                out.write(String.format(Locale.ROOT, "%d,%s\n", user, name));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private long writeRatings(File dir) throws IOException {
+        long total = 0;
+        Cursor<Rating> ratings = ratings();
+        try {
+            Writer out = open(dir, "ratings.csv");
+            try {
+                for (Rating r: ratings) {
+                    out.write(String.format(Locale.ROOT, "%d,%d,%.1f\n", r.getUserId(),
+                                            r.getItemId(), r.getPreference().getValue()));
+                    total++;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            ratings.close();
+        }
+        return total;
+    }
+
+    /**
+     * Cursor that generates one user's ratings at a time.
+     */
+    private class RatingCursor extends AbstractPollingCursor<Rating> {
+        private final long[] itemIds;
+        private final Random rng;
+        private final ZipfDistribution popularity;
+        private final int cap;
+        private final LongSet rated = new LongOpenHashSet();
+        private long user = 0;
+        private int remaining = 0;
+        private double bias;
+
+        RatingCursor(long[] itemIds, Random rng) {
+            this.itemIds = itemIds;
+            this.rng = rng;
+            popularity = new ZipfDistribution(itemCount, itemExponent);
+            cap = Math.min(maxRatings, itemCount);
+        }
+
+        @Override
+        protected Rating poll() {
+            if (remaining == 0) {
+                if (user >= userCount) {
+                    return null;
+                }
+                user++;
+                // Pareto-distributed activity, truncated to the cap
+                double u = 1 - rng.nextDouble();
+                double activity = minRatings * Math.pow(u, -1 / (userExponent - 1));
+                remaining = (int) Math.min(cap, Math.max(1, Math.round(activity)));
+                bias = rng.nextGaussian() * 0.5;
+                rated.clear();
+            }
+            while (true) {
+                long item = itemIds[popularity.sample(rng)];
+                if (rated.add(item)) {
+                    remaining--;
+                    double rating = itemMean(item) + bias + rng.nextGaussian() * 0.8;
+                    rating = Math.max(0.5, Math.min(5.0, Math.round(rating * 2) / 2.0));
+                    return Ratings.make(user, item, rating);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a stable mean rating for an item, derived from its ID.
+     */
+    private static double itemMean(long item) {
+        long h = item * 0x9E3779B97F4A7C15L;
+        return 2.5 + 1.5 * ((h >>> 11) * 0x1.0p-53);
+    }
+
+    private static Writer open(File dir, String name) throws IOException {
+        File file = new File(dir, name);
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"),
+                                  1 << 16);
+    }
+}
@@ -0,0 +1,304 @@
+package edu.umn.cs.recsys.tools;
+
+import edu.umn.cs.recsys.ii.IIMain;
+import edu.umn.cs.recsys.metrics.LatencyHistogram;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.GlobalItemRecommender;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.RecommenderBuildException;
+import org.grouplens.lenskit.core.LenskitRecommender;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.UserDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for the in-process item-item recommender.
+ *
+ * <p>Requests are either replayed from a file, one per line in the command-line syntax of
+ * {@link IIMain} ({@code user:item ...} or {@code --basket item ...}), or synthesized: score
+ * requests for Zipf-distributed users, and basket requests of random size over Zipf-distributed
+ * items.  Load is applied either by a fixed number of threads each issuing requests back to back
+ * ({@code --threads} alone), or at a fixed arrival rate ({@code --rate}).  At a fixed rate every
+ * request has an intended start time on a fixed schedule, and latency is measured from that
+ * time rather than from when a thread got around to sending it, so stalls are not hidden by
+ * coordinated omission.</p>
+ *
+ * <p>Usage: {@code load-test [--data DIR] [--replay FILE] [--threads N] [--rate PER_SEC]
+ * [--duration SEC] [--warmup SEC] [--basket-fraction F] [--items N] [--basket-min N]
+ * [--basket-max N] [--zipf X] [--seed N]}</p>
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class LoadTest {
+    private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
+
+    private File dataDir = new File("data");
+    private File replayFile = null;
+    private int threads = 4;
+    private double rate = 0;
+    private int durationSecs = 30;
+    private int warmupSecs = 5;
+    private double basketFraction = 0.2;
+    private int itemsPerRequest = 5;
+    private int basketMin = 1;
+    private int basketMax = 5;
+    private double zipfExponent = 1.0;
+    private long seed = 42;
+
+    private ItemScorer scorer;
+    private GlobalItemRecommender basketRecommender;
+    private List<Request> replay;
+    private long[] userIds;
+    private long[] itemIds;
+    private ZipfDistribution userPopularity;
+    private ZipfDistribution itemPopularity;
+
+    private final LatencyHistogram scoreLatency = new LatencyHistogram();
+    private final LatencyHistogram basketLatency = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Main entry point to the program.
+     * @param args The load test options.
+     */
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest();
+        for (int i = 0; i < args.length; i++) {
+            String opt = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("missing value for " + opt);
+            }
+            String val = args[++i];
+            if (opt.equals("--data")) {
+                test.dataDir = new File(val);
+            } else if (opt.equals("--replay")) {
+                test.replayFile = new File(val);
+            } else if (opt.equals("--threads")) {
+                test.threads = Integer.parseInt(val);
+            } else if (opt.equals("--rate")) {
+                test.rate = Double.parseDouble(val);
+            } else if (opt.equals("--duration")) {
+                test.durationSecs = Integer.parseInt(val);
+            } else if (opt.equals("--warmup")) {
+                test.warmupSecs = Integer.parseInt(val);
+            } else if (opt.equals("--basket-fraction")) {
+                test.basketFraction = Double.parseDouble(val);
+            } else if (opt.equals("--items")) {
+                test.itemsPerRequest = Integer.parseInt(val);
+            } else if (opt.equals("--basket-min")) {
+                test.basketMin = Integer.parseInt(val);
+            } else if (opt.equals("--basket-max")) {
+                test.basketMax = Integer.parseInt(val);
+            } else if (opt.equals("--zipf")) {
+                test.zipfExponent = Double.parseDouble(val);
+            } else if (opt.equals("--seed")) {
+                test.seed = Long.parseLong(val);
+            } else {
+                throw new IllegalArgumentException("unknown option " + opt);
+            }
+        }
+        test.setUp();
+        test.run();
+    }
+
+    /**
+     * A single request: either score items for a user, or recommend from a basket.
+     */
+    private static class Request {
+        final long user;
+        final Set<Long> items;
+        final boolean basket;
+
+        Request(long user, Set<Long> items, boolean basket) {
+            this.user = user;
+            this.items = items;
+            this.basket = basket;
+        }
+    }
+
+    private void setUp() throws IOException, RecommenderBuildException {
+        logger.info("building recommender from {}", dataDir);
+        LenskitRecommender rec = LenskitRecommender.build(IIMain.configureRecommender(dataDir));
+        scorer = rec.getItemScorer();
+        basketRecommender = rec.getGlobalItemRecommender();
+
+        if (replayFile != null) {
+            replay = readReplay(replayFile);
+            logger.info("replaying {} requests from {}", replay.size(), replayFile);
+        } else {
+            // rank users and items in a fixed random order for Zipf popularity
+            Random rng = new Random(seed);
+            userIds = shuffled(rec.get(UserDAO.class).getUserIds(), rng);
+            itemIds = shuffled(rec.get(ItemDAO.class).getItemIds(), rng);
+            userPopularity = new ZipfDistribution(userIds.length, zipfExponent);
+            itemPopularity = new ZipfDistribution(itemIds.length, zipfExponent);
+        }
+    }
+
+    private static long[] shuffled(LongSet ids, Random rng) {
+        long[] array = ids.toLongArray();
+        Arrays.sort(array);
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = rng.nextInt(i + 1);
+            long tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+        return array;
+    }
+
+    private static List<Request> readReplay(File file) throws IOException {
+        List<Request> requests = new ArrayList<Request>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] words = line.trim().split("\\s+");
+                if (words.length == 0 || words[0].isEmpty()) {
+                    continue;
+                }
+                if (words[0].equals("--basket")) {
+                    Set<Long> basket = new HashSet<Long>();
+                    for (int i = 1; i < words.length; i++) {
+                        basket.add(Long.parseLong(words[i]));
+                    }
+                    requests.add(new Request(-1, basket, true));
+                } else {
+                    // user:item pairs; one request per user, in order of appearance
+                    Map<Long,Set<Long>> byUser = new LinkedHashMap<Long, Set<Long>>();
+                    for (String word: words) {
+                        int colon = word.indexOf(':');
+                        if (colon < 0) {
+                            throw new IOException("invalid replay line: " + line);
+                        }
+                        long user = Long.parseLong(word.substring(0, colon));
+                        Set<Long> items = byUser.get(user);
+                        if (items == null) {
+                            items = new HashSet<Long>();
+                            byUser.put(user, items);
+                        }
+                        items.add(Long.parseLong(word.substring(colon + 1)));
+                    }
+                    for (Map.Entry<Long,Set<Long>> e: byUser.entrySet()) {
+                        requests.add(new Request(e.getKey(), e.getValue(), false));
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        if (requests.isEmpty()) {
+            throw new IOException("no requests in " + file);
+        }
+        return requests;
+    }
+
+    private Request nextRequest(long seq, Random rng) {
+        if (replay != null) {
+            return replay.get((int) (seq % replay.size()));
+        }
+        boolean basket = rng.nextDouble() < basketFraction;
+        int size = basket ? basketMin + rng.nextInt(basketMax - basketMin + 1) : itemsPerRequest;
+        LongSet items = new LongOpenHashSet(size);
+        size = Math.min(size, itemIds.length);
+        while (items.size() < size) {
+            items.add(basket ? itemIds[itemPopularity.sample(rng)]
+                             : itemIds[rng.nextInt(itemIds.length)]);
+        }
+        long user = basket ? -1 : userIds[userPopularity.sample(rng)];
+        return new Request(user, items, basket);
+    }
+
+    private void execute(Request req) {
+        if (req.basket) {
+            basketRecommender.globalRecommend(req.items, 5);
+        } else {
+            scorer.score(req.user, req.items);
+        }
+    }
+
+    private void run() throws InterruptedException {
+        final long start = System.nanoTime();
+        final long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSecs);
+        final long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSecs);
+        final long interval = rate > 0 ? (long) (1e9 / rate) : 0;
+        final AtomicLong sequence = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        logger.info("running {} threads {} for {}s after {}s warmup", threads,
+                    rate > 0 ? "at " + rate + " requests/s" : "back to back",
+                    durationSecs, warmupSecs);
+        for (int t = 0; t < threads; t++) {
+            final Random rng = new Random(seed + 1000 + t);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            long seq = sequence.getAndIncrement();
+                            long intended;
+                            if (interval > 0) {
+                                // open model: wait for this request's slot in the schedule
+                                intended = start + seq * interval;
+                                long wait = intended - System.nanoTime();
+                                if (wait > 0) {
+                                    TimeUnit.NANOSECONDS.sleep(wait);
+                                }
+                            } else {
+                                intended = System.nanoTime();
+                            }
+                            if (intended >= end) {
+                                break;
+                            }
+                            Request req = nextRequest(seq, rng);
+                            try {
+                                execute(req);
+                            } catch (RuntimeException e) {
+                                errors.incrementAndGet();
+                                logger.debug("request failed", e);
+                            }
+                            if (intended >= measureFrom) {
+                                long latency = System.nanoTime() - intended;
+                                (req.basket ? basketLatency : scoreLatency).record(latency);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        System.out.format(Locale.ROOT, "%-8s %10s %10s %10s %10s %10s %10s%n",
+                          "type", "count", "req/s", "p50(us)", "p99(us)", "p999(us)", "max(us)");
+        report("score", scoreLatency);
+        report("basket", basketLatency);
+        System.out.format(Locale.ROOT, "errors: %d%n", errors.get());
+    }
+
+    private void report(String name, LatencyHistogram hist) {
+        System.out.format(Locale.ROOT, "%-8s %10d %10.1f %10d %10d %10d %10d%n",
+                          name, hist.getCount(), (double) hist.getCount() / durationSecs,
+                          hist.getValueAtPercentile(50) / 1000,
+                          hist.getValueAtPercentile(99) / 1000,
+                          hist.getValueAtPercentile(99.9) / 1000,
+                          hist.getMax() / 1000);
+    }
+}
@@ -0,0 +1,39 @@
+package edu.umn.cs.recsys.tools;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Zipf distribution over ranks {@code 0..n-1}: rank {@code r} has probability proportional to
+ * {@code 1 / (r + 1)^exponent}.  Sampling is a binary search of the precomputed CDF.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+class ZipfDistribution {
+    private final double[] cdf;
+
+    ZipfDistribution(int n, double exponent) {
+        cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+    }
+
+    /**
+     * Draw a rank.
+     * @param rng The random number generator.
+     * @return A rank in {@code [0, n)}.
+     */
+    int sample(Random rng) {
+        int rank = Arrays.binarySearch(cdf, rng.nextDouble());
+        if (rank < 0) {
+            rank = -rank - 1;
+        }
+        return Math.min(rank, cdf.length - 1);
+    }
+}
@@ -0,0 +1,85 @@
+package edu.umn.cs.recsys.dao;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class PackedStringTableTest {
+    @Test
+    public void testKeyLookups() throws IOException {
+        PackedStringTable table = new PackedStringTable.Builder()
+                .add(1, "Toy Story (1995)")
+                .add(42, "Amélie (2001)")
+                .add(7, "")
+                .build(false);
+        assertThat(table.size(), equalTo(3));
+        assertThat(table.keys(), contains(1L, 42L, 7L));
+        assertThat(table.valueOf(1), equalTo("Toy Story (1995)"));
+        assertThat(table.valueOf(42), equalTo("Amélie (2001)"));
+        assertThat(table.valueOf(7), equalTo(""));
+        assertThat(table.valueOf(2), nullValue());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WritableByteChannel out = Channels.newChannel(bytes);
+        assertThat(table.writeValue(42, out), equalTo(true));
+        assertThat(table.writeValue(2, out), equalTo(false));
+        assertThat(bytes.toString("UTF-8"), equalTo("Amélie (2001)"));
+    }
+
+    @Test
+    public void testValueLookups() {
+        PackedStringTable table = new PackedStringTable.Builder()
+                .add(1, "alice")
+                .add(2, "bob")
+                .build(true);
+        assertThat(table.keyOf("alice"), equalTo(1L));
+        assertThat(table.keyOf("bob"), equalTo(2L));
+        assertThat(table.keyOf("carol"), equalTo(-1L));
+    }
+
+    @Test
+    public void testLaterKeyWins() {
+        PackedStringTable table = new PackedStringTable.Builder()
+                .add(1, "first")
+                .add(2, "other")
+                .add(1, "second")
+                .build(false);
+        assertThat(table.valueOf(1), equalTo("second"));
+        assertThat(table.valueOf(2), equalTo("other"));
+    }
+
+    @Test
+    public void testLaterValueWins() {
+        PackedStringTable table = new PackedStringTable.Builder()
+                .add(1, "alice")
+                .add(2, "alice")
+                .build(true);
+        assertThat(table.keyOf("alice"), equalTo(2L));
+    }
+
+    /**
+     * Strings past an undersized estimate still round-trip.
+     */
+    @Test
+    public void testGrowsPastEstimate() {
+        PackedStringTable.Builder builder = new PackedStringTable.Builder(1);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            expected.append("title ").append(i).append(' ');
+            builder.add(i, expected.toString());
+        }
+        PackedStringTable table = builder.build(false);
+        assertThat(table.size(), equalTo(500));
+        assertThat(table.valueOf(499), equalTo(expected.toString()));
+        assertThat(table.valueOf(0), equalTo("title 0 "));
+    }
+}
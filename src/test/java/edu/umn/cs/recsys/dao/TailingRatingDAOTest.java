@@ -0,0 +1,144 @@
+package edu.umn.cs.recsys.dao;
+
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.data.dao.SortOrder;
+import org.grouplens.lenskit.data.event.Event;
+import org.grouplens.lenskit.data.event.Rating;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class TailingRatingDAOTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private TailingRatingDAO dao;
+
+    @Before
+    public void createFile() throws IOException {
+        file = folder.newFile("ratings.csv");
+        dao = new TailingRatingDAO(file);
+    }
+
+    private void write(String text, boolean append) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, append);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static <E extends Event> List<E> list(Cursor<E> cursor) {
+        List<E> events = new ArrayList<E>();
+        try {
+            for (E e: cursor) {
+                events.add(e);
+            }
+        } finally {
+            cursor.close();
+        }
+        return events;
+    }
+
+    @Test
+    public void testPartialLineCarriedOver() throws IOException {
+        write("1,10,4.0\n2,20,3", false);
+        assertThat(dao.refresh(), equalTo(1));
+        assertThat(dao.getVersion(), equalTo(1L));
+
+        write(".5\n", true);
+        assertThat(dao.refresh(), equalTo(1));
+        List<Rating> ratings = list(dao.streamEvents(Rating.class));
+        assertThat(ratings.size(), equalTo(2));
+        assertThat(ratings.get(1).getUserId(), equalTo(2L));
+        assertThat(ratings.get(1).getItemId(), equalTo(20L));
+        assertThat(ratings.get(1).getPreference().getValue(), equalTo(3.5));
+    }
+
+    @Test
+    public void testMalformedLinesSkipped() throws IOException {
+        write("1,10,4.0\nfoo,bar\n1,x,3.0\n\n2,20,3.0\n", false);
+        assertThat(dao.refresh(), equalTo(2));
+        assertThat(dao.getSkippedLineCount(), equalTo(2L));
+        List<Rating> ratings = list(dao.streamEvents(Rating.class));
+        assertThat(ratings.get(0).getItemId(), equalTo(10L));
+        assertThat(ratings.get(1).getItemId(), equalTo(20L));
+
+        // the bad lines are behind the offset, so they are not counted again
+        write("3,30,1.0\n", true);
+        assertThat(dao.refresh(), equalTo(1));
+        assertThat(dao.getSkippedLineCount(), equalTo(2L));
+    }
+
+    @Test
+    public void testStreamSinceAfterAppends() throws IOException {
+        write("1,10,4.0\n2,20,3.0\n", false);
+        long version = dao.getVersion();
+        assertThat(version, equalTo(2L));
+
+        write("3,30,1.0\n4,40,2.0\n", true);
+        assertThat(dao.refresh(), equalTo(2));
+        List<Rating> added = list(dao.streamEventsSince(version));
+        assertThat(added.size(), equalTo(2));
+        assertThat(added.get(0).getUserId(), equalTo(3L));
+        assertThat(added.get(1).getUserId(), equalTo(4L));
+        assertThat(list(dao.streamEventsSince(dao.getVersion())).size(), equalTo(0));
+    }
+
+    @Test
+    public void testReloadWhenFileShrinks() throws IOException {
+        write("1,10,4.0\n2,20,3.0\n3,30,1.0\n", false);
+        long version = dao.getVersion();
+        assertThat(version, equalTo(3L));
+
+        write("5,50,5.0\n", false);
+        assertThat(dao.refresh(), equalTo(1));
+        // versions keep increasing across the reload
+        assertThat(dao.getReloadVersion(), equalTo(3L));
+        assertThat(dao.getVersion(), equalTo(4L));
+        List<Rating> ratings = list(dao.streamEventsSince(version));
+        assertThat(ratings.size(), equalTo(1));
+        assertThat(ratings.get(0).getUserId(), equalTo(5L));
+        assertThat(list(dao.streamEvents()).size(), equalTo(1));
+
+        try {
+            dao.streamEventsSince(version - 1);
+            fail("stale version should be rejected");
+        } catch (IllegalStateException e) {
+            /* expected */
+        }
+    }
+
+    @Test
+    public void testSortedStream() throws IOException {
+        write("3,10,4.0\n1,20,3.0\n2,30,1.0\n", false);
+        List<Rating> ratings = list(dao.streamEvents(Rating.class, SortOrder.USER));
+        assertThat(ratings.size(), equalTo(3));
+        for (int i = 0; i < 3; i++) {
+            assertThat(ratings.get(i).getUserId(), equalTo(i + 1L));
+        }
+
+        // a refresh publishes a new snapshot, which sorts the new ratings in
+        write("0,40,2.0\n", true);
+        dao.refresh();
+        ratings = list(dao.streamEvents(Rating.class, SortOrder.USER));
+        assertThat(ratings.size(), equalTo(4));
+        assertThat(ratings.get(0).getUserId(), equalTo(0L));
+    }
+}
@@ -0,0 +1,169 @@
+package edu.umn.cs.recsys.ii;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.grouplens.lenskit.basic.AbstractItemScorer;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class BatchingItemScorerTest {
+    // long enough that a test never reaches the deadline unless it means to
+    private static final long NEVER = TimeUnit.SECONDS.toMicros(60);
+
+    private BatchingItemScorer batcher;
+
+    /**
+     * Scorer that scores item {@code i} for user {@code u} as {@code 10 * u + i}, and records
+     * each call's user and items.
+     */
+    private static class RecordingScorer extends AbstractItemScorer {
+        final List<Long> users = Collections.synchronizedList(new ArrayList<Long>());
+        final List<Set<Long>> items = Collections.synchronizedList(new ArrayList<Set<Long>>());
+
+        @Override
+        public void score(long user, @Nonnull MutableSparseVector scores) {
+            users.add(user);
+            items.add(new HashSet<Long>(scores.keyDomain()));
+            for (VectorEntry e: scores.fast(VectorEntry.State.EITHER)) {
+                scores.set(e.getKey(), 10 * user + e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Scorer that always throws.
+     */
+    private static class FailingScorer extends AbstractItemScorer {
+        private final Throwable error;
+
+        FailingScorer(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void score(long user, @Nonnull MutableSparseVector scores) {
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            throw (RuntimeException) error;
+        }
+    }
+
+    @After
+    public void shutdown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+    }
+
+    private static SparseVector get(ListenableFuture<SparseVector> future) throws Exception {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testCoalescesUser() throws Exception {
+        RecordingScorer scorer = new RecordingScorer();
+        batcher = new BatchingItemScorer(scorer, 100, NEVER, 2);
+        ListenableFuture<SparseVector> first = batcher.score(1, Arrays.asList(1L, 2L));
+        ListenableFuture<SparseVector> second = batcher.score(1, Arrays.asList(2L, 3L));
+        ListenableFuture<SparseVector> other = batcher.score(2, Arrays.asList(1L));
+        batcher.flush();
+
+        SparseVector v = get(first);
+        assertThat(v.keyDomain(), containsInAnyOrder(1L, 2L));
+        assertThat(v.get(1), equalTo(11.0));
+        assertThat(v.get(2), equalTo(12.0));
+        v = get(second);
+        assertThat(v.keyDomain(), containsInAnyOrder(2L, 3L));
+        assertThat(v.get(3), equalTo(13.0));
+        assertThat(get(other).get(1), equalTo(21.0));
+
+        // one call per user, with user 1's items merged
+        assertThat(scorer.users, containsInAnyOrder(1L, 2L));
+        int call = scorer.users.indexOf(1L);
+        assertThat(scorer.items.get(call), containsInAnyOrder(1L, 2L, 3L));
+    }
+
+    @Test
+    public void testFlushOnSize() throws Exception {
+        RecordingScorer scorer = new RecordingScorer();
+        batcher = new BatchingItemScorer(scorer, 2, NEVER, 1);
+        ListenableFuture<SparseVector> first = batcher.score(1, Arrays.asList(1L));
+        assertThat(first.isDone(), equalTo(false));
+        ListenableFuture<SparseVector> second = batcher.score(2, Arrays.asList(1L));
+        assertThat(get(first).get(1), equalTo(11.0));
+        assertThat(get(second).get(1), equalTo(21.0));
+    }
+
+    @Test
+    public void testFlushOnDeadline() throws Exception {
+        RecordingScorer scorer = new RecordingScorer();
+        batcher = new BatchingItemScorer(scorer, 100, 1000, 1);
+        ListenableFuture<SparseVector> result = batcher.score(1, Arrays.asList(4L));
+        assertThat(get(result).get(4), equalTo(14.0));
+    }
+
+    @Test
+    public void testFailsEveryFuture() throws Exception {
+        RuntimeException error = new IllegalStateException("scoring failed");
+        batcher = new BatchingItemScorer(new FailingScorer(error), 100, NEVER, 2);
+        List<ListenableFuture<SparseVector>> results =
+                new ArrayList<ListenableFuture<SparseVector>>();
+        results.add(batcher.score(1, Arrays.asList(1L)));
+        results.add(batcher.score(1, Arrays.asList(2L)));
+        results.add(batcher.score(2, Arrays.asList(1L)));
+        batcher.flush();
+        for (ListenableFuture<SparseVector> result: results) {
+            try {
+                get(result);
+                fail("scoring should have failed");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), sameInstance((Throwable) error));
+            }
+        }
+    }
+
+    @Test
+    public void testFailsOnError() throws Exception {
+        Error error = new AssertionError("scoring failed");
+        batcher = new BatchingItemScorer(new FailingScorer(error), 100, NEVER, 1);
+        ListenableFuture<SparseVector> result = batcher.score(1, Arrays.asList(1L));
+        batcher.flush();
+        try {
+            get(result);
+            fail("scoring should have failed");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), sameInstance((Throwable) error));
+        }
+    }
+
+    @Test
+    public void testRejectsAfterShutdown() throws Exception {
+        RecordingScorer scorer = new RecordingScorer();
+        batcher = new BatchingItemScorer(scorer, 100, NEVER, 1);
+        batcher.shutdown();
+        ListenableFuture<SparseVector> result = batcher.score(1, Arrays.asList(1L));
+        try {
+            get(result);
+            fail("scoring should have been rejected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+        }
+        assertThat(scorer.users.isEmpty(), equalTo(true));
+    }
+}
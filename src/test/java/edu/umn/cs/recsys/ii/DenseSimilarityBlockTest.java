@@ -0,0 +1,83 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.lenskit.vectors.ImmutableSparseVector;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.similarity.CosineVectorSimilarity;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class DenseSimilarityBlockTest {
+    // enough users for three user tiles, the last one partial
+    private static final int USERS = 2500;
+    private static final int ITEMS = 60;
+    private static final int HEAD = 40;
+
+    /**
+     * Make mean-centered item vectors, where item {@code i} is rated by about one user in
+     * {@code i + 1}, so lower item IDs are more popular.
+     */
+    private static Map<Long,ImmutableSparseVector> itemVectors() {
+        Random rng = new Random(42);
+        Map<Long,ImmutableSparseVector> vectors = new HashMap<Long, ImmutableSparseVector>();
+        for (long i = 0; i < ITEMS; i++) {
+            Map<Long,Double> ratings = new HashMap<Long, Double>();
+            for (long u = 1; u <= USERS; u++) {
+                if (rng.nextInt((int) i + 1) == 0) {
+                    ratings.put(u, rng.nextDouble() * 4 - 2);
+                }
+            }
+            vectors.put(i, MutableSparseVector.create(ratings).immutable());
+        }
+        return vectors;
+    }
+
+    /**
+     * The dense kernel agrees with the sparse cosine for every pair of head items.
+     */
+    @Test
+    public void testMatchesSparseCosine() {
+        Map<Long,ImmutableSparseVector> vectors = itemVectors();
+        DenseSimilarityBlock block = new DenseSimilarityBlock(vectors, HEAD);
+        CosineVectorSimilarity cosine = new CosineVectorSimilarity();
+
+        int found = 0;
+        for (long i = 0; i < ITEMS; i++) {
+            int hi = block.indexOf(i);
+            if (hi < 0) {
+                continue;
+            }
+            found++;
+            for (long j = 0; j < ITEMS; j++) {
+                int hj = block.indexOf(j);
+                if (hj < 0 || hj == hi) {
+                    continue;
+                }
+                double expected = cosine.similarity(vectors.get(i), vectors.get(j));
+                assertThat(block.similarity(hi, hj), closeTo(expected, 1.0e-5));
+            }
+        }
+        assertThat(found, equalTo(HEAD));
+    }
+
+    /**
+     * The head is the most-rated items, not the first items in the map.
+     */
+    @Test
+    public void testHeadIsMostPopular() {
+        Map<Long,ImmutableSparseVector> vectors = itemVectors();
+        DenseSimilarityBlock block = new DenseSimilarityBlock(vectors, 5);
+        for (long i = 0; i < 2; i++) {
+            assertThat(block.indexOf(i), greaterThanOrEqualTo(0));
+        }
+        for (long i = 30; i < ITEMS; i++) {
+            assertThat(block.indexOf(i), equalTo(-1));
+        }
+    }
+}
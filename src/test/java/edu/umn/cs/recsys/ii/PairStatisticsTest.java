@@ -0,0 +1,153 @@
+package edu.umn.cs.recsys.ii;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.data.dao.EventCollectionDAO;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.PrefetchingUserEventDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.event.Ratings;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class PairStatisticsTest {
+    /**
+     * A small fixture whose similarities are easy to work out by hand.  Users 1-3 and 6 rate
+     * items 1-3, with integer means (4, 4, 3 and 1); users 4 and 5 rate only items 4 and 5, so
+     * those two items have no co-raters with the first three.
+     */
+    private static List<Rating> handRatings() {
+        return Arrays.asList(Ratings.make(1, 1, 5), Ratings.make(1, 2, 4), Ratings.make(1, 3, 3),
+                             Ratings.make(2, 1, 5), Ratings.make(2, 2, 5), Ratings.make(2, 3, 2),
+                             Ratings.make(3, 2, 2), Ratings.make(3, 3, 4),
+                             Ratings.make(4, 4, 2), Ratings.make(4, 5, 4),
+                             Ratings.make(5, 4, 5), Ratings.make(5, 5, 1),
+                             Ratings.make(6, 2, 1), Ratings.make(6, 3, 1));
+    }
+
+    private static SimpleItemItemModelBuilder builder(List<Rating> ratings, String function,
+                                                      boolean share) {
+        final LongSet items = new LongOpenHashSet();
+        for (Rating r: ratings) {
+            items.add(r.getItemId());
+        }
+        ItemDAO itemDao = new ItemDAO() {
+            @Override
+            public LongSet getItemIds() {
+                return items;
+            }
+        };
+        PrefetchingUserEventDAO dao = new PrefetchingUserEventDAO(new EventCollectionDAO(ratings));
+        return new SimpleItemItemModelBuilder(itemDao, dao, 64, 0, 0, 0, "sample", 0,
+                                              function, 100, share);
+    }
+
+    private static boolean isNeighbor(SimpleItemItemModel model, long item, long nbr) {
+        return !Double.isNaN(similarity(model, item, nbr));
+    }
+
+    /**
+     * Get a neighbor's similarity, or {@code NaN} if it is not in the item's row.
+     */
+    private static double similarity(SimpleItemItemModel model, long item, long nbr) {
+        int row = model.getItemIndex(item);
+        int[] nbrs = model.getNeighborIndexes(row);
+        for (int k = 0; k < nbrs.length; k++) {
+            if (model.getItemId(nbrs[k]) == nbr) {
+                return model.getNeighborScore(row, k);
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * The shared single-pass cosine model is the default build's model, neighbor for neighbor.
+     */
+    @Test
+    public void testSharedCosineMatchesDefault() {
+        Random rng = new Random(42);
+        List<Rating> ratings = new ArrayList<Rating>();
+        for (long u = 1; u <= 30; u++) {
+            for (long i = 1; i <= 25; i++) {
+                if (rng.nextInt(3) == 0) {
+                    ratings.add(Ratings.make(u, i, 0.5 * (1 + rng.nextInt(10))));
+                }
+            }
+        }
+        SimpleItemItemModelBuilder plain = builder(ratings, "cosine", false);
+        SimpleItemItemModel expected = plain.buildModel(plain.getItemVectors());
+        SimpleItemItemModel shared = builder(ratings, "cosine", true).get();
+
+        assertThat(shared.getItemCount(), equalTo(expected.getItemCount()));
+        for (int row = 0; row < expected.getItemCount(); row++) {
+            assertThat(shared.getItemId(row), equalTo(expected.getItemId(row)));
+            int[] nbrs = expected.getNeighborIndexes(row);
+            assertThat(shared.getNeighborIndexes(row).length, equalTo(nbrs.length));
+            for (int k = 0; k < nbrs.length; k++) {
+                assertThat(shared.getNeighborIndexes(row)[k], equalTo(nbrs[k]));
+                assertThat(shared.getNeighborScore(row, k),
+                           closeTo(expected.getNeighborScore(row, k), 1.0e-12));
+            }
+        }
+    }
+
+    @Test
+    public void testCosine() {
+        SimpleItemItemModel model = builder(handRatings(), "cosine", true).get();
+        // centered: item 1 = (1, 1), item 2 = (0, 1, -1) over users 1-3 (user 6 is all 0)
+        assertThat(similarity(model, 1, 2), closeTo(0.5, 1.0e-12));
+        assertThat(similarity(model, 2, 1), closeTo(0.5, 1.0e-12));
+        // item 3 is negatively correlated with both
+        assertThat(isNeighbor(model, 1, 3), equalTo(false));
+        assertThat(isNeighbor(model, 2, 3), equalTo(false));
+    }
+
+    @Test
+    public void testRawCosine() {
+        SimpleItemItemModel model = builder(handRatings(), "raw-cosine", false).get();
+        assertThat(similarity(model, 1, 2), closeTo(45 / Math.sqrt(50 * 46), 1.0e-12));
+        assertThat(similarity(model, 1, 3), closeTo(25 / Math.sqrt(50 * 30), 1.0e-12));
+        assertThat(similarity(model, 2, 3), closeTo(31 / Math.sqrt(46 * 30), 1.0e-12));
+        assertThat(similarity(model, 4, 5), closeTo(13 / Math.sqrt(29 * 17), 1.0e-12));
+    }
+
+    @Test
+    public void testShrunkCosine() {
+        SimpleItemItemModel model = builder(handRatings(), "shrunk-cosine", false).get();
+        // two co-raters, damping 100
+        assertThat(similarity(model, 1, 2), closeTo(0.5 * 2 / 102, 1.0e-12));
+    }
+
+    @Test
+    public void testPearson() {
+        SimpleItemItemModel model = builder(handRatings(), "pearson", false).get();
+        // over users 1, 2, 3 and 6: deviations (1, 2, -1, -2) and (.5, -.5, 1.5, -1.5)
+        assertThat(similarity(model, 2, 3), closeTo(1 / Math.sqrt(10 * 5), 1.0e-12));
+        // item 1's ratings are constant over its co-raters, so the denominator is 0
+        assertThat(isNeighbor(model, 1, 2), equalTo(false));
+        assertThat(isNeighbor(model, 1, 3), equalTo(false));
+    }
+
+    /**
+     * Items without co-raters are never each other's neighbors, under any function.
+     */
+    @Test
+    public void testNoCoRaters() {
+        for (String function: PairStatistics.FUNCTIONS) {
+            SimpleItemItemModel model = builder(handRatings(), function, true).get();
+            for (long i = 1; i <= 3; i++) {
+                for (long j = 4; j <= 5; j++) {
+                    assertThat(function, isNeighbor(model, i, j), equalTo(false));
+                    assertThat(function, isNeighbor(model, j, i), equalTo(false));
+                }
+            }
+        }
+    }
+}
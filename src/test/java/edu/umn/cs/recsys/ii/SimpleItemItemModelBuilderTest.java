@@ -0,0 +1,87 @@
+package edu.umn.cs.recsys.ii;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.data.dao.EventCollectionDAO;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.PrefetchingUserEventDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.event.Ratings;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class SimpleItemItemModelBuilderTest {
+    // with 1MB of build memory, 400 items make chunks of 163 rows, so the build takes 3 chunks
+    private static final int ITEMS = 400;
+    private static final int USERS = 300;
+
+    private static SimpleItemItemModelBuilder builder(List<Rating> ratings, int memoryMB) {
+        final LongSet items = new LongOpenHashSet();
+        for (Rating r: ratings) {
+            items.add(r.getItemId());
+        }
+        ItemDAO itemDao = new ItemDAO() {
+            @Override
+            public LongSet getItemIds() {
+                return items;
+            }
+        };
+        PrefetchingUserEventDAO dao = new PrefetchingUserEventDAO(new EventCollectionDAO(ratings));
+        return new SimpleItemItemModelBuilder(itemDao, dao, 64, 0, memoryMB, 0, "sample", 0,
+                                              "cosine", 100, false);
+    }
+
+    private static int countSpillFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("ii-nbrs") && name.endsWith(".bin");
+            }
+        });
+        return names == null ? 0 : names.length;
+    }
+
+    /**
+     * A build that spills several chunks produces the same model as building in memory, and
+     * leaves no spill files behind.
+     */
+    @Test
+    public void testOutOfCoreMatchesInMemory() {
+        Random rng = new Random(42);
+        List<Rating> ratings = new ArrayList<Rating>();
+        for (long u = 1; u <= USERS; u++) {
+            for (long i = 1; i <= ITEMS; i++) {
+                if (rng.nextInt(20) == 0) {
+                    ratings.add(Ratings.make(u, i, 0.5 * (1 + rng.nextInt(10))));
+                }
+            }
+        }
+        SimpleItemItemModelBuilder inMemory = builder(ratings, 0);
+        SimpleItemItemModel expected = inMemory.buildModel(inMemory.getItemVectors());
+        int spillFiles = countSpillFiles();
+        SimpleItemItemModelBuilder outOfCore = builder(ratings, 1);
+        SimpleItemItemModel model = outOfCore.buildModel(outOfCore.getItemVectors());
+        assertThat(countSpillFiles(), equalTo(spillFiles));
+
+        assertThat(model.getItemCount(), equalTo(expected.getItemCount()));
+        for (int row = 0; row < expected.getItemCount(); row++) {
+            assertThat(model.getItemId(row), equalTo(expected.getItemId(row)));
+            int[] nbrs = expected.getNeighborIndexes(row);
+            assertThat(model.getNeighborIndexes(row).length, equalTo(nbrs.length));
+            for (int k = 0; k < nbrs.length; k++) {
+                assertThat(model.getNeighborIndexes(row)[k], equalTo(nbrs[k]));
+                assertThat(model.getNeighborScore(row, k),
+                           equalTo(expected.getNeighborScore(row, k)));
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.scored.ScoredIdListBuilder;
+import org.grouplens.lenskit.scored.ScoredIds;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class SimpleItemItemModelTest {
+    private static final int[] INDEXES = {3, 0, 2};
+    private static final double[] SCORES = {0.9, 0.5, 0.0005};
+
+    @Test
+    public void testExactRowRoundTrip() {
+        SimpleItemItemModel.Row row = SimpleItemItemModel.Row.encode(INDEXES, SCORES, 64);
+        assertThat(row.size(), equalTo(3));
+        assertThat(row.getIndexes(), equalTo(INDEXES));
+        for (int k = 0; k < SCORES.length; k++) {
+            assertThat(row.getScore(k), equalTo(SCORES[k]));
+        }
+    }
+
+    @Test
+    public void testQuantizedRowRoundTrip() {
+        for (int bits: new int[]{16, 8}) {
+            SimpleItemItemModel.Row row = SimpleItemItemModel.Row.encode(INDEXES, SCORES, bits);
+            assertThat(row.getIndexes(), equalTo(INDEXES));
+            // within one quantization step of the original
+            double step = SCORES[0] / (bits == 16 ? 0xFFFF : 0xFF);
+            for (int k = 0; k < SCORES.length; k++) {
+                assertThat(row.getScore(k), closeTo(SCORES[k], step));
+            }
+        }
+    }
+
+    @Test
+    public void testSmallSimilarityStaysPositive() {
+        // 0.0005 is well below half an 8-bit step of 0.9 / 255
+        SimpleItemItemModel.Row row = SimpleItemItemModel.Row.encode(INDEXES, SCORES, 8);
+        assertThat(row.getScore(2), greaterThan(0.0));
+    }
+
+    @Test
+    public void testEmptyRow() {
+        SimpleItemItemModel.Row row = SimpleItemItemModel.Row.encode(new int[0], new double[0], 8);
+        assertThat(row.size(), equalTo(0));
+    }
+
+    /**
+     * Neighbors without rows of their own still get dictionary entries.
+     */
+    @Test
+    public void testNeighborWithoutRow() {
+        Map<Long,List<ScoredId>> nbrhoods = new HashMap<Long, List<ScoredId>>();
+        ScoredIdListBuilder nbrs = ScoredIds.newListBuilder();
+        nbrs.add(7, 0.8);
+        nbrs.add(3, 0.4);
+        nbrhoods.put(5L, nbrs.build());
+        nbrs = ScoredIds.newListBuilder();
+        nbrs.add(5, 0.4);
+        nbrhoods.put(3L, nbrs.build());
+        SimpleItemItemModel model = new SimpleItemItemModel(nbrhoods);
+
+        assertThat(model.getItemCount(), equalTo(3));
+        assertThat(model.getItemId(0), equalTo(3L));
+        assertThat(model.getItemId(1), equalTo(5L));
+        assertThat(model.getItemId(2), equalTo(7L));
+        List<ScoredId> row = model.getNeighbors(5);
+        assertThat(row.size(), equalTo(2));
+        assertThat(row.get(0).getId(), equalTo(7L));
+        assertThat(row.get(1).getId(), equalTo(3L));
+        assertThat(model.getNeighbors(7).size(), equalTo(0));
+    }
+
+    /**
+     * A lazy model computes each row once while it stays resident, keeps at most its capacity,
+     * and has no reverse index.
+     */
+    @Test
+    public void testLazyRows() {
+        final int[] computed = new int[4];
+        SimpleItemItemModel.RowSource source = new SimpleItemItemModel.RowSource() {
+            @Override
+            public SimpleItemItemModel.Row computeRow(int row) {
+                computed[row]++;
+                return SimpleItemItemModel.Row.encode(new int[]{(row + 1) % 4},
+                                                      new double[]{0.5}, 64);
+            }
+        };
+        SimpleItemItemModel model = SimpleItemItemModel.lazy(new long[]{10, 20, 30, 40}, 64, 2,
+                                                             source);
+        assertThat(model.isLazy(), equalTo(true));
+        assertThat(model.getRow(0).getIndexes()[0], equalTo(1));
+        assertThat(model.getRow(0).getIndexes()[0], equalTo(1));
+        assertThat(computed[0], equalTo(1));
+
+        // three more rows push row 0 out, so it must be computed again
+        model.getRow(1);
+        model.getRow(2);
+        model.getRow(3);
+        model.getRow(0);
+        assertThat(computed[0], equalTo(2));
+        assertThat(model.getNeighbors(40).get(0).getId(), equalTo(10L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLazyHasNoReverseIndex() {
+        SimpleItemItemModel.RowSource source = new SimpleItemItemModel.RowSource() {
+            @Override
+            public SimpleItemItemModel.Row computeRow(int row) {
+                return SimpleItemItemModel.Row.EMPTY;
+            }
+        };
+        SimpleItemItemModel.lazy(new long[]{10, 20}, 64, 2, source).getReverseNeighbors();
+    }
+}
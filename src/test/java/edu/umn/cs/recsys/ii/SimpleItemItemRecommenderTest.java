@@ -0,0 +1,113 @@
+package edu.umn.cs.recsys.ii;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.data.dao.EventCollectionDAO;
+import org.grouplens.lenskit.data.dao.PrefetchingUserEventDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.event.Ratings;
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.scored.ScoredIdListBuilder;
+import org.grouplens.lenskit.scored.ScoredIds;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class SimpleItemItemRecommenderTest {
+    private static final int ITEMS = 40;
+    private static final int USERS = 12;
+    // small enough that most candidates have more rated neighbors than are used
+    private static final int NNBRS = 3;
+
+    private SimpleItemItemModel model;
+    private PrefetchingUserEventDAO dao;
+    private Map<Long,LongSet> rated;
+
+    @Before
+    public void createFixture() {
+        Random rng = new Random(42);
+        Map<Long,List<ScoredId>> nbrhoods = new HashMap<Long, List<ScoredId>>();
+        for (long i = 1; i <= ITEMS; i++) {
+            ScoredIdListBuilder nbrs = ScoredIds.newListBuilder();
+            for (long j = 1; j <= ITEMS; j++) {
+                if (j != i && rng.nextInt(3) == 0) {
+                    nbrs.add(j, rng.nextDouble());
+                }
+            }
+            nbrs.sort(SimpleItemItemModelBuilder.ScoreIdComparator);
+            nbrhoods.put(i, nbrs.build());
+        }
+        model = new SimpleItemItemModel(nbrhoods, 16);
+
+        List<Rating> ratings = new ArrayList<Rating>();
+        rated = new HashMap<Long, LongSet>();
+        for (long u = 1; u <= USERS; u++) {
+            LongSet items = new LongOpenHashSet();
+            for (long i = 1; i <= ITEMS; i++) {
+                if (rng.nextInt(5) == 0) {
+                    ratings.add(Ratings.make(u, i, 1 + rng.nextInt(5)));
+                    items.add(i);
+                }
+            }
+            rated.put(u, items);
+        }
+        dao = new PrefetchingUserEventDAO(new EventCollectionDAO(ratings));
+    }
+
+    /**
+     * Recommending from the reverse index gives every unrated item the same score as scoring
+     * it directly.
+     */
+    @Test
+    public void testMatchesScorer() {
+        checkMatchesScorer(NNBRS);
+    }
+
+    /**
+     * The usual "unlimited" neighborhood size must not overflow.
+     */
+    @Test
+    public void testMatchesScorerUnlimited() {
+        checkMatchesScorer(Integer.MAX_VALUE);
+    }
+
+    private void checkMatchesScorer(int nnbrs) {
+        SimpleItemItemScorer scorer = new SimpleItemItemScorer(model, dao, nnbrs);
+        SimpleItemItemRecommender recommender =
+                new SimpleItemItemRecommender(model, dao, scorer, nnbrs);
+        for (long u = 1; u <= USERS; u++) {
+            LongArrayList unrated = new LongArrayList();
+            for (long i = 1; i <= ITEMS; i++) {
+                if (!rated.get(u).contains(i)) {
+                    unrated.add(i);
+                }
+            }
+            SparseVector expected = scorer.score(u, unrated);
+
+            List<ScoredId> recs = recommender.recommend(u, -1);
+            assertThat(recs.size(), equalTo(expected.size()));
+            for (ScoredId rec: recs) {
+                assertThat(expected.containsKey(rec.getId()), equalTo(true));
+                assertThat(rec.getScore(), closeTo(expected.get(rec.getId()), 1.0e-9));
+            }
+
+            // the top 5 are the 5 highest scores, best first
+            List<Double> scores = new ArrayList<Double>(expected.values());
+            Collections.sort(scores, Collections.reverseOrder());
+            List<ScoredId> top = recommender.recommend(u, 5);
+            assertThat(top.size(), equalTo(Math.min(5, scores.size())));
+            for (int k = 0; k < top.size(); k++) {
+                assertThat(top.get(k).getScore(), closeTo(scores.get(k), 1.0e-9));
+            }
+        }
+    }
+}
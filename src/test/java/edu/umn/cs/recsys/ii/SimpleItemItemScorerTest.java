@@ -0,0 +1,43 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.lenskit.data.dao.EventCollectionDAO;
+import org.grouplens.lenskit.data.dao.PrefetchingUserEventDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.event.Ratings;
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.scored.ScoredIdListBuilder;
+import org.grouplens.lenskit.scored.ScoredIds;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class SimpleItemItemScorerTest {
+    /**
+     * At 8 bits, a neighbor much less similar than the row's best must still carry weight.
+     */
+    @Test
+    public void testSmallSimilarityAt8Bits() {
+        Map<Long,List<ScoredId>> nbrhoods = new HashMap<Long, List<ScoredId>>();
+        ScoredIdListBuilder nbrs = ScoredIds.newListBuilder();
+        nbrs.add(2, 1.0);
+        nbrs.add(3, 0.001);
+        nbrhoods.put(1L, nbrs.build());
+        SimpleItemItemModel model = new SimpleItemItemModel(nbrhoods, 8);
+
+        // the user has only rated the weakly similar neighbor
+        List<Rating> ratings = Arrays.asList(Ratings.make(42, 3, 4.0));
+        PrefetchingUserEventDAO dao = new PrefetchingUserEventDAO(new EventCollectionDAO(ratings));
+        SimpleItemItemScorer scorer = new SimpleItemItemScorer(model, dao, 20);
+
+        SparseVector scores = scorer.score(42, Arrays.asList(1L));
+        assertThat(scores.containsKey(1), equalTo(true));
+        assertThat(scores.get(1), closeTo(4.0, 1.0e-9));
+    }
+}